@@ -0,0 +1,252 @@
+package pl.com.bottega.cqrs.command;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Concurrency limit with a bounded queue for one command type.<br>
+ * At most {@link #getLimit()} commands run at once; up to queue capacity more
+ * wait for a permit, and the rest are rejected at once. Commands still waiting
+ * when their allowed wait is over are rejected by a timer, even if no permit
+ * is ever returned, as when a store hangs.<br>
+ * A permit is taken when a command is accepted and returned when it is done,
+ * so commands queued in their aggregate's mailbox of {@link CommandBus} hold
+ * permits too. This bounds mailbox queues as well, at the price that a single
+ * busy aggregate can take all permits of its command type.<br>
+ * Latency is measured from when the handler starts, not from when the permit
+ * is taken, so waiting behind other commands of the same aggregate does not
+ * look like a slow store.<br>
+ * The limit adapts to latency (AIMD): while the smoothed latency stays within
+ * {@link #TOLERANCE} times the lowest latency recently seen, it grows by one
+ * per limit-worth of completions; once latency rises above that, as when a
+ * store slows down, it is cut by {@link #BACKOFF}, at most once per
+ * limit-worth of completions. The lowest latency is taken over windows of
+ * {@link #WINDOW} completions, so a lasting change of latency becomes the new
+ * reference.
+ */
+public class AdmissionControl {
+
+	static final double TOLERANCE = 2.0;
+
+	static final double BACKOFF = 0.9;
+
+	static final int WINDOW = 1000;
+
+	private static final double SMOOTHING = 0.1;
+
+	private static final ScheduledThreadPoolExecutor TIMER = new ScheduledThreadPoolExecutor(1, runnable -> {
+		Thread thread = new Thread(runnable, "admission-timer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	static {
+		TIMER.setRemoveOnCancelPolicy(true);
+	}
+
+	private final int minLimit;
+
+	private final int maxLimit;
+
+	private final int queueCapacity;
+
+	private final long maxQueueWaitNanos;
+
+	private volatile int limit;
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	private final AtomicInteger queued = new AtomicInteger();
+
+	private final Queue<Waiting> waiting = new ConcurrentLinkedQueue<Waiting>();
+
+	private final LongAdder rejected = new LongAdder();
+
+	/**
+	 * Guarded by this
+	 */
+	private double estimatedLimit;
+
+	private double smoothedNanos;
+
+	private long windowMinNanos = Long.MAX_VALUE;
+
+	private long referenceNanos = Long.MAX_VALUE;
+
+	private int windowSamples;
+
+	private int samplesUntilBackoff;
+
+	/**
+	 * Starts at maxLimit, never goes below one permit.
+	 */
+	public AdmissionControl(int maxLimit, int queueCapacity, long maxQueueWait, TimeUnit unit) {
+		this(1, maxLimit, queueCapacity, maxQueueWait, unit);
+	}
+
+	public AdmissionControl(int minLimit, int maxLimit, int queueCapacity, long maxQueueWait, TimeUnit unit) {
+		if (minLimit < 1 || maxLimit < minLimit)
+			throw new IllegalArgumentException("Expected 1 <= minLimit <= maxLimit");
+		if (queueCapacity < 0)
+			throw new IllegalArgumentException("queueCapacity must not be negative");
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.queueCapacity = queueCapacity;
+		this.maxQueueWaitNanos = unit.toNanos(maxQueueWait);
+		this.limit = maxLimit;
+		this.estimatedLimit = maxLimit;
+	}
+
+	/**
+	 * Runs start now if a permit is free, otherwise queues it. Whoever runs
+	 * start must {@link #release(long)} the permit once the command is done,
+	 * or {@link #release()} it if the command never ran.
+	 * 
+	 * @param reject
+	 *            called instead of start when the command is rejected, now or
+	 *            after waiting in queue
+	 */
+	void submit(Class<?> commandType, Runnable start, Consumer<CommandRejectedException> reject) {
+		if (tryAcquire()) {
+			start.run();
+			return;
+		}
+		if (queued.incrementAndGet() > queueCapacity) {
+			queued.decrementAndGet();
+			rejected.increment();
+			reject.accept(new CommandRejectedException(commandType, limit + " running, " + queueCapacity
+					+ " queued"));
+			return;
+		}
+		Waiting next = new Waiting(commandType, start, reject);
+		waiting.add(next);
+		next.timeout = TIMER.schedule(() -> expire(next), maxQueueWaitNanos, TimeUnit.NANOSECONDS);
+		drain();
+	}
+
+	/**
+	 * Returns permit of a command and adjusts the limit to its latency.
+	 * 
+	 * @param startNanos
+	 *            {@link System#nanoTime()} when the handler of the command
+	 *            started
+	 */
+	void release(long startNanos) {
+		adjust(System.nanoTime() - startNanos);
+		release();
+	}
+
+	/**
+	 * Returns permit of a command that never ran, leaving the limit as it is.
+	 */
+	void release() {
+		inFlight.decrementAndGet();
+		drain();
+	}
+
+	private boolean tryAcquire() {
+		for (;;) {
+			int current = inFlight.get();
+			if (current >= limit)
+				return false;
+			if (inFlight.compareAndSet(current, current + 1))
+				return true;
+		}
+	}
+
+	private void drain() {
+		while (!waiting.isEmpty() && tryAcquire()) {
+			Waiting next = waiting.poll();
+			if (next == null || !next.claim()) {
+				inFlight.decrementAndGet();
+				continue;
+			}
+			queued.decrementAndGet();
+			ScheduledFuture<?> timeout = next.timeout;
+			if (timeout != null)
+				timeout.cancel(false);
+			next.start.run();
+		}
+	}
+
+	private void expire(Waiting next) {
+		if (!next.claim())
+			return;
+		waiting.remove(next);
+		queued.decrementAndGet();
+		rejected.increment();
+		next.reject.accept(new CommandRejectedException(next.commandType, "waited in queue longer than "
+				+ TimeUnit.NANOSECONDS.toMillis(maxQueueWaitNanos) + " ms"));
+	}
+
+	private synchronized void adjust(long nanos) {
+		smoothedNanos = smoothedNanos == 0 ? nanos : smoothedNanos + (nanos - smoothedNanos) * SMOOTHING;
+		windowMinNanos = Math.min(windowMinNanos, nanos);
+		if (++windowSamples >= WINDOW) {
+			referenceNanos = windowMinNanos;
+			windowMinNanos = Long.MAX_VALUE;
+			windowSamples = 0;
+		}
+		long reference = Math.min(referenceNanos, windowMinNanos);
+
+		if (samplesUntilBackoff > 0)
+			samplesUntilBackoff--;
+		if (smoothedNanos > reference * TOLERANCE) {
+			if (samplesUntilBackoff == 0) {
+				estimatedLimit = Math.max(minLimit, estimatedLimit * BACKOFF);
+				samplesUntilBackoff = (int) estimatedLimit;
+			}
+		} else if (inFlight.get() * 2 >= limit) {
+			estimatedLimit = Math.min(maxLimit, estimatedLimit + 1 / estimatedLimit);
+		}
+		limit = (int) estimatedLimit;
+	}
+
+	public int getLimit() {
+		return limit;
+	}
+
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	public int getQueued() {
+		return queued.get();
+	}
+
+	public long getRejectedCount() {
+		return rejected.sum();
+	}
+
+	private static class Waiting {
+		private final Class<?> commandType;
+
+		private final Runnable start;
+
+		private final Consumer<CommandRejectedException> reject;
+
+		/**
+		 * Set once either started or expired
+		 */
+		private final AtomicBoolean claimed = new AtomicBoolean();
+
+		private volatile ScheduledFuture<?> timeout;
+
+		Waiting(Class<?> commandType, Runnable start, Consumer<CommandRejectedException> reject) {
+			this.commandType = commandType;
+			this.start = start;
+			this.reject = reject;
+		}
+
+		boolean claim() {
+			return claimed.compareAndSet(false, true);
+		}
+	}
+}
@@ -0,0 +1,175 @@
+package pl.com.bottega.cqrs.command;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * Runs tasks one at a time per aggregate and in parallel across aggregates.<br>
+ * Every aggregate with pending tasks has a mailbox, a queue drained by at most
+ * one executor thread at a time in order of submission. Mailboxes are created
+ * with the first task and removed as soon as they run empty, so idle
+ * aggregates cost nothing.<br>
+ * A mailbox gives up its thread after {@link #BATCH_SIZE} tasks and is
+ * rescheduled, so one busy aggregate can not starve the others.<br>
+ * When the executor rejects a mailbox, the mailbox is dropped together with
+ * its pending tasks, each of which is told through its rejection handler;
+ * later tasks of the aggregate start a new mailbox.
+ */
+public class AggregateMailboxes {
+
+	static final int BATCH_SIZE = 64;
+
+	private final Executor executor;
+
+	private final ConcurrentMap<Object, Mailbox> mailboxes = new ConcurrentHashMap<Object, Mailbox>();
+
+	public AggregateMailboxes(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * 
+	 * @throws RejectedExecutionException
+	 *             if the executor rejected the mailbox of this task; other
+	 *             tasks of the mailbox submitted without a rejection handler
+	 *             are dropped
+	 */
+	public void execute(Object aggregateId, Runnable task) {
+		execute(aggregateId, task, null);
+	}
+
+	/**
+	 * 
+	 * @param rejected
+	 *            called instead of running task when the executor rejects its
+	 *            mailbox, possibly on another thread
+	 */
+	public void execute(Object aggregateId, Runnable task, Consumer<? super RejectedExecutionException> rejected) {
+		Pending pending = new Pending(task, rejected);
+		boolean[] schedule = new boolean[1];
+		Mailbox mailbox = mailboxes.compute(aggregateId, (id, existing) -> {
+			Mailbox target = existing != null ? existing : new Mailbox(id);
+			target.tasks.add(pending);
+			if (!target.scheduled) {
+				target.scheduled = true;
+				schedule[0] = true;
+			}
+			return target;
+		});
+		if (schedule[0]) {
+			try {
+				executor.execute(mailbox);
+			} catch (RejectedExecutionException e) {
+				if (mailbox.reject(e, pending) && rejected == null)
+					throw e;
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * @return number of aggregates with pending or running tasks
+	 */
+	public int activeMailboxes() {
+		return mailboxes.size();
+	}
+
+	private class Mailbox implements Runnable {
+		private final Object aggregateId;
+
+		private final Queue<Pending> tasks = new ConcurrentLinkedQueue<Pending>();
+
+		/**
+		 * Guarded by mailboxes map entry
+		 */
+		private boolean scheduled;
+
+		Mailbox(Object aggregateId) {
+			this.aggregateId = aggregateId;
+		}
+
+		@Override
+		public void run() {
+			for (int i = 0; i < BATCH_SIZE; i++) {
+				Pending pending = tasks.poll();
+				if (pending == null) {
+					if (release())
+						return;
+					continue;
+				}
+				try {
+					pending.task.run();
+				} catch (RuntimeException e) {
+					// tasks report their own failures
+				}
+			}
+			if (tasks.isEmpty() && release())
+				return;
+			try {
+				executor.execute(this);
+			} catch (RejectedExecutionException e) {
+				reject(e, null);
+			}
+		}
+
+		/**
+		 * Removes this mailbox and hands its pending tasks to their rejection
+		 * handlers.
+		 * 
+		 * @return true if own was among the rejected tasks
+		 */
+		private boolean reject(RejectedExecutionException e, Pending own) {
+			List<Pending> rejected = new ArrayList<Pending>();
+			mailboxes.compute(aggregateId, (id, current) -> {
+				Pending pending;
+				while ((pending = tasks.poll()) != null)
+					rejected.add(pending);
+				scheduled = false;
+				return current == this ? null : current;
+			});
+			boolean ownRejected = false;
+			for (Pending pending : rejected) {
+				if (pending == own)
+					ownRejected = true;
+				if (pending.rejected != null)
+					pending.rejected.accept(e);
+			}
+			return ownRejected;
+		}
+
+		/**
+		 * 
+		 * @return true if mailbox was empty and is removed
+		 */
+		private boolean release() {
+			boolean[] released = new boolean[1];
+			mailboxes.compute(aggregateId, (id, current) -> {
+				if (current == this && tasks.isEmpty()) {
+					scheduled = false;
+					released[0] = true;
+					return null;
+				}
+				return current;
+			});
+			return released[0];
+		}
+	}
+
+	private static class Pending {
+		private final Runnable task;
+
+		private final Consumer<? super RejectedExecutionException> rejected;
+
+		Pending(Runnable task, Consumer<? super RejectedExecutionException> rejected) {
+			this.task = task;
+			this.rejected = rejected;
+		}
+	}
+}
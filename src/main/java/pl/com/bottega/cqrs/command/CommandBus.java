@@ -0,0 +1,297 @@
+package pl.com.bottega.cqrs.command;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import pl.com.bottega.cqrs.command.handler.CommandHandler;
+import pl.com.bottega.cqrs.command.metrics.CommandMetrics;
+import pl.com.bottega.ecommerce.system.application.RequestScope;
+
+/**
+ * Routes commands to handlers registered for their class (or closest
+ * superclass) and runs them asynchronously.<br>
+ * Handlers run on the given executor; by default on virtual threads when the
+ * runtime has them, otherwise on a cached pool, so handlers blocked on
+ * repositories do not limit how many commands are in progress.<br>
+ * The caller's {@link RequestScope} is carried over to the handler; a command
+ * dispatched outside of any scope gets a new one.<br>
+ * Commands registered with an aggregate id function are run one at a time per
+ * aggregate through {@link AggregateMailboxes}, so handlers of the same
+ * aggregate never race each other.<br>
+ * Commands registered with {@link AdmissionControl} are limited in how many
+ * run and wait at once; commands over the limit fail fast with
+ * {@link CommandRejectedException}.<br>
+ * {@link IdempotentCommand}s are run once per key while the key is held in
+ * {@link IdempotencyCache}; duplicates, including concurrent ones, get the
+ * result of that single execution.<br>
+ * Every command is measured in {@link CommandMetrics}, under the simple name of
+ * the type it was registered for: time from dispatch until the handler starts
+ * (admission and mailbox wait) as stage <code>&lt;command&gt;.queued</code>,
+ * time in handler as <code>&lt;command&gt;.run</code>; commands failed by
+ * handler and rejected before reaching it are counted as
+ * <code>&lt;command&gt;.failed</code> and <code>&lt;command&gt;.rejected</code>.
+ */
+public class CommandBus {
+
+	static final int DEFAULT_IDEMPOTENCY_CAPACITY = 100000;
+
+	static final long DEFAULT_IDEMPOTENCY_MINUTES = 10;
+
+	private final Executor executor;
+
+	private final AggregateMailboxes mailboxes;
+
+	private final IdempotencyCache idempotencyCache;
+
+	private final CommandMetrics metrics;
+
+	private final ConcurrentMap<Class<?>, Route> routes = new ConcurrentHashMap<Class<?>, Route>();
+
+	public CommandBus() {
+		this(defaultExecutor());
+	}
+
+	public CommandBus(Executor executor) {
+		this(executor, new IdempotencyCache(DEFAULT_IDEMPOTENCY_CAPACITY, DEFAULT_IDEMPOTENCY_MINUTES,
+				TimeUnit.MINUTES));
+	}
+
+	public CommandBus(Executor executor, IdempotencyCache idempotencyCache) {
+		this(executor, idempotencyCache, CommandMetrics.getDefault());
+	}
+
+	public CommandBus(Executor executor, IdempotencyCache idempotencyCache, CommandMetrics metrics) {
+		this.executor = executor;
+		this.mailboxes = new AggregateMailboxes(executor);
+		this.idempotencyCache = idempotencyCache;
+		this.metrics = metrics;
+	}
+
+	public <C> void register(Class<C> commandType, CommandHandler<? super C, ?> handler) {
+		register(commandType, handler, null);
+	}
+
+	/**
+	 * 
+	 * @param aggregateId
+	 *            id of aggregate the command modifies, e.g.
+	 *            <code>AddProductCommand::getOrderId</code>; commands with
+	 *            equal ids run one after another, in order of dispatching
+	 */
+	public <C> void register(Class<C> commandType, CommandHandler<? super C, ?> handler,
+			Function<? super C, ?> aggregateId) {
+		register(commandType, handler, aggregateId, null);
+	}
+
+	/**
+	 * 
+	 * @param aggregateId
+	 *            as in {@link #register(Class, CommandHandler, Function)}, may
+	 *            be null
+	 * @param admission
+	 *            limits of this command type, not shared with other types
+	 */
+	public <C> void register(Class<C> commandType, CommandHandler<? super C, ?> handler,
+			Function<? super C, ?> aggregateId, AdmissionControl admission) {
+		if (routes.putIfAbsent(commandType, new Route(commandType, handler, aggregateId, admission)) != null)
+			throw new IllegalStateException("Handler for " + commandType.getName() + " already registered");
+	}
+
+	/**
+	 * 
+	 * @return result of handler; completed exceptionally with exception thrown
+	 *         by handler, with {@link IllegalArgumentException} if there is no
+	 *         handler for the command or no aggregate id in it, with exception
+	 *         thrown by the aggregate id function, or with
+	 *         {@link CommandRejectedException} if it was shed by admission
+	 *         control; for duplicates of an {@link IdempotentCommand}, result
+	 *         of the first delivery
+	 */
+	public <R> CompletableFuture<R> dispatch(Object command) {
+		Object idempotencyKey = command instanceof IdempotentCommand ? ((IdempotentCommand) command)
+				.getIdempotencyKey() : null;
+		if (idempotencyKey == null)
+			return execute(command);
+
+		Object key = Arrays.asList(command.getClass(), idempotencyKey);
+		CompletableFuture<R> shared = new CompletableFuture<R>();
+		CompletableFuture<R> existing = idempotencyCache.putIfAbsent(key, shared);
+		if (existing != null)
+			return existing.copy();
+
+		CompletableFuture<R> result;
+		try {
+			result = execute(command);
+		} catch (RuntimeException | Error e) {
+			idempotencyCache.remove(key, shared);
+			shared.completeExceptionally(e);
+			if (e instanceof Error)
+				throw e;
+			return shared.copy();
+		}
+		result.whenComplete((value, failure) -> {
+			if (failure != null) {
+				idempotencyCache.remove(key, shared);
+				shared.completeExceptionally(failure);
+			} else {
+				shared.complete(value);
+			}
+		});
+		return shared.copy();
+	}
+
+	private <R> CompletableFuture<R> execute(Object command) {
+		final Route route = routeFor(command.getClass());
+		if (route == null) {
+			CompletableFuture<R> failed = new CompletableFuture<R>();
+			failed.completeExceptionally(new IllegalArgumentException("No handler for "
+					+ command.getClass().getName()));
+			return failed;
+		}
+
+		RequestScope scope = RequestScope.current();
+		final RequestScope commandScope = scope != null ? scope : new RequestScope();
+		final CompletableFuture<R> result = new CompletableFuture<R>();
+		final CommandHandler<Object, R> handler = route.handler();
+		final AdmissionControl admission = route.admission;
+		final long dispatchNanos = System.nanoTime();
+		Runnable start = () -> {
+			Runnable task = () -> {
+				long runNanos = metrics.record(route.queuedStage, dispatchNanos);
+				R value;
+				try {
+					value = commandScope.call(() -> handler.handle(command));
+				} catch (Throwable e) {
+					metrics.record(route.runStage, runNanos);
+					metrics.increment(route.failedCounter);
+					release(admission, runNanos);
+					result.completeExceptionally(e);
+					return;
+				}
+				metrics.record(route.runStage, runNanos);
+				release(admission, runNanos);
+				result.complete(value);
+			};
+			try {
+				if (route.aggregateId != null)
+					mailboxes.execute(aggregateIdOf(route, command), task, rejected -> {
+						metrics.increment(route.rejectedCounter);
+						release(admission);
+						result.completeExceptionally(rejected);
+					});
+				else
+					executor.execute(task);
+			} catch (RuntimeException e) {
+				metrics.increment(route.rejectedCounter);
+				release(admission);
+				result.completeExceptionally(e);
+			}
+		};
+		if (admission == null)
+			start.run();
+		else
+			admission.submit(command.getClass(), start, rejected -> {
+				metrics.increment(route.rejectedCounter);
+				result.completeExceptionally(rejected);
+			});
+		return result;
+	}
+
+	private static Object aggregateIdOf(Route route, Object command) {
+		Object aggregateId = route.aggregateId.apply(command);
+		if (aggregateId == null)
+			throw new IllegalArgumentException("No aggregate id in " + command.getClass().getName());
+		return aggregateId;
+	}
+
+	private static void release(AdmissionControl admission, long startNanos) {
+		if (admission != null)
+			admission.release(startNanos);
+	}
+
+	private static void release(AdmissionControl admission) {
+		if (admission != null)
+			admission.release();
+	}
+
+	private Route routeFor(Class<?> commandType) {
+		for (Class<?> type = commandType; type != null; type = type.getSuperclass()) {
+			Route route = routes.get(type);
+			if (route != null)
+				return route;
+		}
+		return null;
+	}
+
+	private static class Route {
+		private final CommandHandler<?, ?> handler;
+
+		private final Function<Object, ?> aggregateId;
+
+		private final AdmissionControl admission;
+
+		private final String queuedStage;
+
+		private final String runStage;
+
+		private final String failedCounter;
+
+		private final String rejectedCounter;
+
+		@SuppressWarnings("unchecked")
+		Route(Class<?> commandType, CommandHandler<?, ?> handler, Function<?, ?> aggregateId,
+				AdmissionControl admission) {
+			this.handler = handler;
+			this.aggregateId = (Function<Object, ?>) aggregateId;
+			this.admission = admission;
+			this.queuedStage = commandType.getSimpleName() + ".queued";
+			this.runStage = commandType.getSimpleName() + ".run";
+			this.failedCounter = commandType.getSimpleName() + ".failed";
+			this.rejectedCounter = commandType.getSimpleName() + ".rejected";
+		}
+
+		@SuppressWarnings("unchecked")
+		<R> CommandHandler<Object, R> handler() {
+			return (CommandHandler<Object, R>) handler;
+		}
+	}
+
+	/**
+	 * 
+	 * @return executor shared by all users of the default, created on first
+	 *         call: virtual thread per task when available (Java 21+),
+	 *         otherwise cached pool of daemon threads; it lives as long as
+	 *         the application and can not be shut down
+	 */
+	public static Executor defaultExecutor() {
+		return DefaultExecutor.INSTANCE;
+	}
+
+	private static class DefaultExecutor {
+		private static final Executor INSTANCE = create();
+
+		private static Executor create() {
+			ExecutorService executor;
+			try {
+				Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+				executor = (ExecutorService) factory.invoke(null);
+			} catch (ReflectiveOperationException e) {
+				executor = Executors.newCachedThreadPool(runnable -> {
+					Thread thread = new Thread(runnable, "command-bus");
+					thread.setDaemon(true);
+					return thread;
+				});
+			}
+			// hides shutdown from users of the shared instance
+			return executor::execute;
+		}
+	}
+}
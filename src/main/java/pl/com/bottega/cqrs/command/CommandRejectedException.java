@@ -0,0 +1,22 @@
+package pl.com.bottega.cqrs.command;
+
+/**
+ * Command was not run because its type is overloaded: all permits are taken
+ * and the queue is full, or the command waited in the queue too long. Safe to
+ * retry later, nothing was changed.
+ */
+public class CommandRejectedException extends RuntimeException {
+
+	private static final long serialVersionUID = -3805713407385467203L;
+
+	private Class<?> commandType;
+
+	public CommandRejectedException(Class<?> commandType, String reason) {
+		super(commandType.getSimpleName() + " rejected: " + reason);
+		this.commandType = commandType;
+	}
+
+	public Class<?> getCommandType() {
+		return commandType;
+	}
+}
@@ -0,0 +1,137 @@
+package pl.com.bottega.cqrs.command;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Results of recently dispatched {@link IdempotentCommand}s by key.<br>
+ * Keys expire a fixed time after they were first seen; when there are more
+ * than capacity keys, the oldest go first. Keys of failed executions count
+ * towards capacity until they reach the head of the queue, so apart from
+ * running commands the cache never holds more than capacity entries, live or
+ * forgotten. A result is stored as soon as the command is accepted, so
+ * duplicates arriving while it runs wait for the same execution. Keys of
+ * running commands neither expire nor are evicted, as a duplicate would run
+ * next to the original. Failed executions are forgotten, so a retry runs the
+ * command again.
+ */
+public class IdempotencyCache {
+
+	private final int capacity;
+
+	private final long timeToLiveNanos;
+
+	private final ConcurrentMap<Object, Entry> entries = new ConcurrentHashMap<Object, Entry>();
+
+	/**
+	 * Entries in order of insertion, which is also order of expiry
+	 */
+	private final Queue<Entry> order = new ConcurrentLinkedQueue<Entry>();
+
+	private final AtomicInteger queued = new AtomicInteger();
+
+	private final LongSupplier nanoTime;
+
+	public IdempotencyCache(int capacity, long timeToLive, TimeUnit unit) {
+		this(capacity, timeToLive, unit, System::nanoTime);
+	}
+
+	/**
+	 * 
+	 * @param nanoTime
+	 *            time source in the sense of {@link System#nanoTime()}
+	 */
+	IdempotencyCache(int capacity, long timeToLive, TimeUnit unit, LongSupplier nanoTime) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("capacity must be positive");
+		this.capacity = capacity;
+		this.timeToLiveNanos = unit.toNanos(timeToLive);
+		this.nanoTime = nanoTime;
+	}
+
+	/**
+	 * 
+	 * @return result stored under key, or null if there was none and result
+	 *         was stored
+	 */
+	@SuppressWarnings("unchecked")
+	<R> CompletableFuture<R> putIfAbsent(Object key, CompletableFuture<R> result) {
+		long now = nanoTime.getAsLong();
+		Entry created = new Entry(key, result, now + timeToLiveNanos);
+		for (;;) {
+			Entry existing = entries.putIfAbsent(key, created);
+			if (existing == null)
+				break;
+			if (existing.expiresAtNanos - now > 0 || !existing.result.isDone())
+				return (CompletableFuture<R>) existing.result;
+			if (entries.replace(key, existing, created))
+				break;
+		}
+		order.add(created);
+		queued.incrementAndGet();
+		evict(now);
+		return null;
+	}
+
+	/**
+	 * Forgets result stored under key, if it is still the given one.
+	 */
+	void remove(Object key, CompletableFuture<?> result) {
+		entries.computeIfPresent(key, (k, entry) -> entry.result == result ? null : entry);
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * 
+	 * @return entries held in insertion order, including forgotten ones
+	 */
+	int queued() {
+		return queued.get();
+	}
+
+	/**
+	 * Drops oldest entries while there are more than capacity, and expired
+	 * or forgotten ones from the head. Entries of running commands met on the
+	 * way go back to the tail; each is passed over at most once per call.
+	 */
+	private void evict(long now) {
+		int kept = 0;
+		Entry oldest;
+		while ((oldest = order.peek()) != null && kept < queued.get()
+				&& (queued.get() > capacity || oldest.expiresAtNanos - now <= 0 || entries.get(oldest.key) != oldest)) {
+			oldest = order.poll();
+			if (oldest == null)
+				return;
+			if (!oldest.result.isDone() && entries.get(oldest.key) == oldest) {
+				order.add(oldest);
+				kept++;
+				continue;
+			}
+			queued.decrementAndGet();
+			entries.remove(oldest.key, oldest);
+		}
+	}
+
+	private static class Entry {
+		private final Object key;
+
+		private final CompletableFuture<?> result;
+
+		private final long expiresAtNanos;
+
+		Entry(Object key, CompletableFuture<?> result, long expiresAtNanos) {
+			this.key = key;
+			this.result = result;
+			this.expiresAtNanos = expiresAtNanos;
+		}
+	}
+}
@@ -0,0 +1,16 @@
+package pl.com.bottega.cqrs.command;
+
+/**
+ * Command that may be delivered more than once, e.g. retried by a client
+ * after a timeout. {@link CommandBus} runs commands of the same type and
+ * idempotency key once and gives every duplicate the same result.
+ */
+public interface IdempotentCommand {
+
+	/**
+	 * 
+	 * @return key chosen by the client, equal for all deliveries of one
+	 *         command; null if the command should not be deduplicated
+	 */
+	public Object getIdempotencyKey();
+}
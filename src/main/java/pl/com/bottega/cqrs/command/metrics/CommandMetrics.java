@@ -0,0 +1,180 @@
+package pl.com.bottega.cqrs.command.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.FlightRecorder;
+
+/**
+ * Stage timings and outcome counters of command handling, cheap enough to stay
+ * on in production.<br>
+ * Handlers mark stage boundaries with {@link #record(String, long)}, which
+ * feeds a {@link LatencyHistogram} per stage. Data is read as a
+ * {@link #snapshot()} or from a flight recording: every stage timing is a
+ * <code>pl.com.bottega.cqrs.CommandStage</code> event (disabled by default),
+ * percentiles and counters are emitted periodically as
+ * <code>pl.com.bottega.cqrs.CommandStageStatistics</code> and
+ * <code>pl.com.bottega.cqrs.CommandCounter</code> events once the application
+ * calls {@link #registerFlightRecorderEvents()}. Until then metrics do not
+ * touch Flight Recorder beyond a check whether stage events are enabled.
+ */
+public class CommandMetrics {
+
+	private static final Set<CommandMetrics> INSTANCES = Collections.synchronizedSet(
+			Collections.newSetFromMap(new WeakHashMap<CommandMetrics, Boolean>()));
+
+	private static final CommandMetrics DEFAULT = new CommandMetrics();
+
+	private static final AtomicBoolean PERIODIC_EVENTS_REGISTERED = new AtomicBoolean();
+
+	private final ConcurrentMap<String, LatencyHistogram> stages = new ConcurrentHashMap<String, LatencyHistogram>();
+
+	private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<String, LongAdder>();
+
+	public CommandMetrics() {
+		INSTANCES.add(this);
+	}
+
+	/**
+	 * 
+	 * @return metrics shared by handlers not given their own
+	 */
+	public static CommandMetrics getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * Starts periodic statistics and counter events of all metrics. Registering
+	 * initializes Flight Recorder, so it is left to the application; calls
+	 * after the first one do nothing.
+	 */
+	public static void registerFlightRecorderEvents() {
+		if (PERIODIC_EVENTS_REGISTERED.compareAndSet(false, true)) {
+			FlightRecorder.addPeriodicEvent(StageStatisticsEvent.class, CommandMetrics::emitStatistics);
+			FlightRecorder.addPeriodicEvent(CounterEvent.class, CommandMetrics::emitCounters);
+		}
+	}
+
+	/**
+	 * Records time elapsed in stage.
+	 * 
+	 * @param startNanos
+	 *            {@link System#nanoTime()} at start of stage
+	 * @return {@link System#nanoTime()} at end of stage, usable as start of
+	 *         the next one
+	 */
+	public long record(String stage, long startNanos) {
+		long now = System.nanoTime();
+		long nanos = now - startNanos;
+		stage(stage).record(nanos);
+
+		StageEvent event = new StageEvent();
+		if (event.isEnabled()) {
+			event.stage = stage;
+			event.nanos = nanos;
+			event.commit();
+		}
+		return now;
+	}
+
+	public void increment(String counter) {
+		LongAdder adder = counters.get(counter);
+		if (adder == null)
+			adder = counters.computeIfAbsent(counter, name -> new LongAdder());
+		adder.increment();
+	}
+
+	public LatencyHistogram stage(String stage) {
+		LatencyHistogram histogram = stages.get(stage);
+		if (histogram == null)
+			histogram = stages.computeIfAbsent(stage, name -> new LatencyHistogram());
+		return histogram;
+	}
+
+	public Snapshot snapshot() {
+		Map<String, LatencyHistogram.Snapshot> stageSnapshots = new TreeMap<String, LatencyHistogram.Snapshot>();
+		for (Map.Entry<String, LatencyHistogram> stage : stages.entrySet())
+			stageSnapshots.put(stage.getKey(), stage.getValue().snapshot());
+		Map<String, Long> counterValues = new TreeMap<String, Long>();
+		for (Map.Entry<String, LongAdder> counter : counters.entrySet())
+			counterValues.put(counter.getKey(), counter.getValue().sum());
+		return new Snapshot(stageSnapshots, counterValues);
+	}
+
+	private static void emitStatistics() {
+		for (CommandMetrics metrics : instances()) {
+			for (Map.Entry<String, LatencyHistogram.Snapshot> stage : metrics.snapshot().getStages().entrySet()) {
+				LatencyHistogram.Snapshot snapshot = stage.getValue();
+				StageStatisticsEvent event = new StageStatisticsEvent();
+				event.stage = stage.getKey();
+				event.count = snapshot.getCount();
+				event.p50 = snapshot.getP50();
+				event.p99 = snapshot.getP99();
+				event.p999 = snapshot.getP999();
+				event.max = snapshot.getMax();
+				event.commit();
+			}
+		}
+	}
+
+	private static void emitCounters() {
+		for (CommandMetrics metrics : instances()) {
+			for (Map.Entry<String, LongAdder> counter : metrics.counters.entrySet()) {
+				CounterEvent event = new CounterEvent();
+				event.counter = counter.getKey();
+				event.value = counter.getValue().sum();
+				event.commit();
+			}
+		}
+	}
+
+	private static CommandMetrics[] instances() {
+		synchronized (INSTANCES) {
+			return INSTANCES.toArray(new CommandMetrics[0]);
+		}
+	}
+
+	public static class Snapshot {
+		private final Map<String, LatencyHistogram.Snapshot> stages;
+
+		private final Map<String, Long> counters;
+
+		Snapshot(Map<String, LatencyHistogram.Snapshot> stages, Map<String, Long> counters) {
+			this.stages = Collections.unmodifiableMap(stages);
+			this.counters = Collections.unmodifiableMap(counters);
+		}
+
+		/**
+		 * 
+		 * @return histograms by stage name, in name order
+		 */
+		public Map<String, LatencyHistogram.Snapshot> getStages() {
+			return stages;
+		}
+
+		/**
+		 * 
+		 * @return counter values by name, in name order
+		 */
+		public Map<String, Long> getCounters() {
+			return counters;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder builder = new StringBuilder();
+			for (Map.Entry<String, LatencyHistogram.Snapshot> stage : stages.entrySet())
+				builder.append(stage.getKey()).append(": ").append(stage.getValue()).append('\n');
+			for (Map.Entry<String, Long> counter : counters.entrySet())
+				builder.append(counter.getKey()).append(": ").append(counter.getValue()).append('\n');
+			return builder.toString();
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package pl.com.bottega.cqrs.command.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+
+/**
+ * Value of one counter, emitted periodically for every registered
+ * {@link CommandMetrics}.
+ */
+@Name("pl.com.bottega.cqrs.CommandCounter")
+@Label("Command Counter")
+@Category({ "Application", "Commands" })
+@Description("Occurrences of one outcome of command handling since start")
+@StackTrace(false)
+@Period("10 s")
+class CounterEvent extends jdk.jfr.Event {
+
+	@Label("Counter")
+	String counter;
+
+	@Label("Value")
+	long value;
+}
@@ -0,0 +1,41 @@
+package pl.com.bottega.cqrs.command.metrics;
+
+import pl.com.bottega.cqrs.command.handler.CommandHandler;
+
+/**
+ * Records total time of every command handled by decorated handler, failed
+ * ones included, as stage <code>&lt;command&gt;.handle</code>; failures are
+ * also counted as <code>&lt;command&gt;.failed</code>.<br>
+ * Commands dispatched through {@link pl.com.bottega.cqrs.command.CommandBus}
+ * are measured by the bus; decorate handlers called directly.
+ */
+public class InstrumentedCommandHandler<C, R> implements CommandHandler<C, R> {
+
+	private final CommandHandler<C, R> handler;
+
+	private final CommandMetrics metrics;
+
+	private final String stage;
+
+	private final String failed;
+
+	public InstrumentedCommandHandler(Class<C> commandType, CommandHandler<C, R> handler, CommandMetrics metrics) {
+		this.handler = handler;
+		this.metrics = metrics;
+		this.stage = commandType.getSimpleName() + ".handle";
+		this.failed = commandType.getSimpleName() + ".failed";
+	}
+
+	@Override
+	public R handle(C command) {
+		long start = System.nanoTime();
+		try {
+			return handler.handle(command);
+		} catch (RuntimeException e) {
+			metrics.increment(failed);
+			throw e;
+		} finally {
+			metrics.record(stage, start);
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package pl.com.bottega.cqrs.command.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * One timed stage of a command, committed only while a flight recording has
+ * the event enabled.
+ */
+@Name("pl.com.bottega.cqrs.CommandStage")
+@Label("Command Stage")
+@Category({ "Application", "Commands" })
+@Description("Time spent in one stage of command handling")
+@StackTrace(false)
+@Enabled(false)
+class StageEvent extends jdk.jfr.Event {
+
+	@Label("Stage")
+	String stage;
+
+	@Label("Duration")
+	@Timespan(Timespan.NANOSECONDS)
+	long nanos;
+}
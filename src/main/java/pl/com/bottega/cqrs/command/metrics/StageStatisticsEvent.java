@@ -0,0 +1,44 @@
+package pl.com.bottega.cqrs.command.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Percentiles of one stage, emitted periodically for every registered
+ * {@link CommandMetrics}.
+ */
+@Name("pl.com.bottega.cqrs.CommandStageStatistics")
+@Label("Command Stage Statistics")
+@Category({ "Application", "Commands" })
+@Description("Latency percentiles of one stage of command handling since start")
+@StackTrace(false)
+@Period("10 s")
+class StageStatisticsEvent extends jdk.jfr.Event {
+
+	@Label("Stage")
+	String stage;
+
+	@Label("Count")
+	long count;
+
+	@Label("50th Percentile")
+	@Timespan(Timespan.NANOSECONDS)
+	long p50;
+
+	@Label("99th Percentile")
+	@Timespan(Timespan.NANOSECONDS)
+	long p99;
+
+	@Label("99.9th Percentile")
+	@Timespan(Timespan.NANOSECONDS)
+	long p999;
+
+	@Label("Maximum")
+	@Timespan(Timespan.NANOSECONDS)
+	long max;
+}
@@ -11,6 +11,11 @@ public class BaseAggregateRoot {
 	protected Id id;
 	private AggregateStatus aggregateStatus = AggregateStatus.ACTIVE;
 
+	/**
+	 * Version of stored state this instance was loaded from, 0 for never saved
+	 */
+	private long version;
+
 	public void markAsRemoved() {
 		aggregateStatus = AggregateStatus.ARCHIVE;
 	}
@@ -19,6 +24,18 @@ public class BaseAggregateRoot {
 		return id;
 	}
 
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * For repositories only: called after successful save with version of
+	 * stored state.
+	 */
+	public void assignVersion(long version) {
+		this.version = version;
+	}
+
 	public boolean isRemoved() {
 		return aggregateStatus == AggregateStatus.ARCHIVE;
 	}
@@ -0,0 +1,35 @@
+package pl.com.bottega.ddd.support.domain;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.function.Function;
+
+import pl.com.bottega.ecommerce.canonicalmodel.publishedlanguage.Id;
+
+/**
+ * Default of <code>loadAll</code> in repositories: aggregates are loaded one
+ * by one, on the calling thread. Stores able to answer in one query, or to
+ * load concurrently, should override <code>loadAll</code>.
+ */
+public class BulkLoad {
+
+	private BulkLoad() {
+	}
+
+	/**
+	 * 
+	 * @return found aggregates by id, in order of ids; ids for which loader
+	 *         returned null are left out
+	 */
+	public static <T> Map<Id, T> loadOneByOne(Collection<Id> ids, Function<Id, T> loader) {
+		Map<Id, T> result = new LinkedHashMap<Id, T>(ids.size() * 2);
+		for (Id id : new LinkedHashSet<Id>(ids)) {
+			T aggregate = loader.apply(id);
+			if (aggregate != null)
+				result.put(id, aggregate);
+		}
+		return result;
+	}
+}
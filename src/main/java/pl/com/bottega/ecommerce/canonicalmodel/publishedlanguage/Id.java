@@ -15,32 +15,128 @@
  */
 package pl.com.bottega.ecommerce.canonicalmodel.publishedlanguage;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
-import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.lang3.Validate;
 
-
+/**
+ * The string is the id: it is the only persisted and serialized field, and {@link #equals(Object)},
+ * {@link #hashCode()} and {@link #toString()} are those of the string.<br>
+ * Ids in the UUID form produced by {@link #generate()} are additionally parsed into two longs, so two such ids are
+ * compared without looking at their strings. Ids restored without the parsed form (e.g. hydrated by a field mapping
+ * store) are compared by string.
+ */
 public class Id implements Serializable{
 
+	/**
+	 * Same as the computed one of the original, string-only class, so its serialized ids still read
+	 */
+	private static final long serialVersionUID = -3939527439195960194L;
+
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private static final int UUID_LENGTH = 36;
+
+	private static final AtomicLong SEQUENCE = new AtomicLong();
+
 	private String id;
 
+	private transient long mostSigBits;
+
+	private transient long leastSigBits;
+
 	public Id(String id) {
 		Validate.notNull(id);
 		this.id = id;
+		parseUuid(id);
+	}
+
+	private Id(long mostSigBits, long leastSigBits) {
+		this.mostSigBits = mostSigBits;
+		this.leastSigBits = leastSigBits;
+		this.id = formatUuid();
 	}
 
 	protected Id() {
 	}
 	
+	/**
+	 * Time ordered id in UUID version 7 layout: millisecond timestamp, a 12 bit sequence shared by all threads and 62
+	 * random bits from {@link ThreadLocalRandom}. No locks and no SecureRandom are involved.
+	 */
 	public static Id generate(){
-		return new Id(UUID.randomUUID().toString());
+		long sequence = SEQUENCE.getAndIncrement() & 0xFFFL;
+		long mostSigBits = (System.currentTimeMillis() << 16) | 0x7000L | sequence;
+		long leastSigBits = (ThreadLocalRandom.current().nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+		return new Id(mostSigBits, leastSigBits);
 	}
 
 	public String getId() {
 		return id;
 	}
 
+	private boolean isParsed() {
+		return mostSigBits != 0 || leastSigBits != 0;
+	}
+
+	/**
+	 * Accepts only the lower case form written by {@link #formatUuid()}, so that the string survives a round trip.
+	 */
+	private void parseUuid(String text) {
+		if (text.length() != UUID_LENGTH)
+			return;
+		long most = 0;
+		long least = 0;
+		int digits = 0;
+		for (int i = 0; i < UUID_LENGTH; i++) {
+			char c = text.charAt(i);
+			if (i == 8 || i == 13 || i == 18 || i == 23) {
+				if (c != '-')
+					return;
+				continue;
+			}
+			int value;
+			if (c >= '0' && c <= '9')
+				value = c - '0';
+			else if (c >= 'a' && c <= 'f')
+				value = c - 'a' + 10;
+			else
+				return;
+			if (digits < 16)
+				most = (most << 4) | value;
+			else
+				least = (least << 4) | value;
+			digits++;
+		}
+		this.mostSigBits = most;
+		this.leastSigBits = least;
+	}
+
+	private String formatUuid() {
+		char[] chars = new char[UUID_LENGTH];
+		int digit = 0;
+		for (int i = 0; i < UUID_LENGTH; i++) {
+			if (i == 8 || i == 13 || i == 18 || i == 23) {
+				chars[i] = '-';
+				continue;
+			}
+			long bits = digit < 16 ? mostSigBits : leastSigBits;
+			chars[i] = HEX_DIGITS[(int) (bits >>> ((15 - (digit & 15)) << 2)) & 0xF];
+			digit++;
+		}
+		return new String(chars);
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		if (id != null)
+			parseUuid(id);
+	}
+
 	@Override
 	public int hashCode() {
 		return id.hashCode();
@@ -55,6 +151,8 @@ public class Id implements Serializable{
 		if (getClass() != obj.getClass())
 			return false;
 		Id other = (Id) obj;
+		if (isParsed() && other.isParsed())
+			return mostSigBits == other.mostSigBits && leastSigBits == other.leastSigBits;
 		if (id == null) {
 			if (other.id != null)
 				return false;
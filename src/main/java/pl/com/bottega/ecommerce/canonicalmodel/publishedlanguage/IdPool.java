@@ -0,0 +1,103 @@
+/*
+ * Copyright 2011-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package pl.com.bottega.ecommerce.canonicalmodel.publishedlanguage;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Canonicalizing pool of {@link Id}s. {@link #intern(Id)} returns one shared instance per id value, so aggregates and
+ * snapshots that refer to the same product or client can share it and {@link Id#equals(Object)} ends on the identity
+ * check. Ids are held weakly - an id no longer referenced outside the pool is dropped from it.<br>
+ * Bookkeeping costs about 70 bytes per pooled id, roughly two {@link Id} instances, so the pool pays off for ids held
+ * by more than three objects.<br>
+ * Safe for concurrent use.
+ */
+public class IdPool {
+
+	private final ConcurrentMap<Entry, Entry> entries = new ConcurrentHashMap<Entry, Entry>();
+
+	private final ReferenceQueue<Id> collected = new ReferenceQueue<Id>();
+
+	/**
+	 * 
+	 * @param id
+	 * @return instance equal to id, id itself if it was not pooled yet
+	 */
+	public Id intern(Id id) {
+		if (id == null)
+			return null;
+		expungeCollected();
+
+		Entry entry = new Entry(id, collected);
+		while (true) {
+			Entry existing = entries.putIfAbsent(entry, entry);
+			if (existing == null)
+				return id;
+			Id pooled = existing.get();
+			if (pooled != null)
+				return pooled;
+			// referent was just collected, replace stale entry
+			entries.remove(existing, existing);
+		}
+	}
+
+	/**
+	 * 
+	 * @return number of pooled ids, including ones collected but not yet expunged
+	 */
+	public int size() {
+		expungeCollected();
+		return entries.size();
+	}
+
+	private void expungeCollected() {
+		Object stale;
+		while ((stale = collected.poll()) != null) {
+			entries.remove(stale, stale);
+		}
+	}
+
+	private static class Entry extends WeakReference<Id> {
+
+		private final int hash;
+
+		Entry(Id id, ReferenceQueue<Id> queue) {
+			super(id, queue);
+			this.hash = id.hashCode();
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Entry))
+				return false;
+			Entry other = (Entry) obj;
+			if (hash != other.hash)
+				return false;
+			Id id = get();
+			return id != null && id.equals(other.get());
+		}
+	}
+}
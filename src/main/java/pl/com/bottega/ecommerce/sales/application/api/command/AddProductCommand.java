@@ -1,19 +1,32 @@
 package pl.com.bottega.ecommerce.sales.application.api.command;
 
+import pl.com.bottega.cqrs.command.IdempotentCommand;
 import pl.com.bottega.ecommerce.canonicalmodel.publishedlanguage.Id;
 
 
-public class AddProductCommand {
+public class AddProductCommand implements IdempotentCommand {
 
 	private Id orderId;
 	private Id productId;
 	private int quantity;
+	private Id idempotencyKey;
 	
 	public AddProductCommand(Id orderId, Id productId,
 			int quantity) {
+		this(orderId, productId, quantity, null);
+	}
+	
+	/**
+	 * @param idempotencyKey
+	 *            same for every retry of this command, so the quantity is
+	 *            added once
+	 */
+	public AddProductCommand(Id orderId, Id productId,
+			int quantity, Id idempotencyKey) {
 		this.orderId = orderId;
 		this.productId = productId;
 		this.quantity = quantity;
+		this.idempotencyKey = idempotencyKey;
 	}
 	
 	public Id getOrderId() {
@@ -27,4 +40,9 @@ public class AddProductCommand {
 	public int getQuantity() {
 		return quantity;
 	}
+	
+	@Override
+	public Id getIdempotencyKey() {
+		return idempotencyKey;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,38 @@
+package pl.com.bottega.ecommerce.sales.application.api.command;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import pl.com.bottega.ecommerce.canonicalmodel.publishedlanguage.Id;
+
+
+public class AddProductsCommand {
+
+	private Id orderId;
+	private Map<Id, Integer> quantities = new LinkedHashMap<Id, Integer>();
+	
+	public AddProductsCommand(Id orderId) {
+		this.orderId = orderId;
+	}
+	
+	/**
+	 * Quantities of the same product are summed.
+	 */
+	public AddProductsCommand add(Id productId, int quantity) {
+		quantities.merge(productId, quantity, Integer::sum);
+		return this;
+	}
+	
+	public Id getOrderId() {
+		return orderId;
+	}
+	
+	/**
+	 * 
+	 * @return quantities by product id, in order of adding
+	 */
+	public Map<Id, Integer> getQuantities() {
+		return Collections.unmodifiableMap(quantities);
+	}
+}
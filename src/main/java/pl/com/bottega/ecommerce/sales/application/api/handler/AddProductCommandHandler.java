@@ -16,6 +16,7 @@
 package pl.com.bottega.ecommerce.sales.application.api.handler;
 
 import pl.com.bottega.cqrs.command.handler.CommandHandler;
+import pl.com.bottega.cqrs.command.metrics.CommandMetrics;
 import pl.com.bottega.ecommerce.sales.application.api.command.AddProductCommand;
 import pl.com.bottega.ecommerce.sales.domain.client.Client;
 import pl.com.bottega.ecommerce.sales.domain.client.ClientRepository;
@@ -24,12 +25,41 @@ import pl.com.bottega.ecommerce.sales.domain.productscatalog.Product;
 import pl.com.bottega.ecommerce.sales.domain.productscatalog.ProductRepository;
 import pl.com.bottega.ecommerce.sales.domain.reservation.Reservation;
 import pl.com.bottega.ecommerce.sales.domain.reservation.ReservationRepository;
+import pl.com.bottega.ecommerce.sharedkernel.exceptions.OptimisticLockingException.OptimisticLockingException;
 import pl.com.bottega.ecommerce.system.application.SystemContext;
 
 
 
 public class AddProductCommandHandler implements CommandHandler<AddProductCommand, Void>{
 
+	/**
+	 * Attempts of load-add-save cycle when reservation is modified concurrently
+	 */
+	static final int MAX_ATTEMPTS = 5;
+	
+	static final String RESERVATION_LOAD = "AddProductCommand.reservationLoad";
+	
+	static final String PRODUCT_LOAD = "AddProductCommand.productLoad";
+	
+	/**
+	 * Client lookup and suggestion of an equivalent
+	 */
+	static final String SUGGESTION = "AddProductCommand.suggestion";
+	
+	static final String RESERVATION_ADD = "AddProductCommand.reservationAdd";
+	
+	static final String RESERVATION_SAVE = "AddProductCommand.reservationSave";
+	
+	/**
+	 * Products found unavailable
+	 */
+	static final String AVAILABILITY_MISS = "AddProductCommand.availabilityMiss";
+	
+	/**
+	 * Unavailable products replaced by a suggested equivalent
+	 */
+	static final String SUGGESTION_FALLBACK = "AddProductCommand.suggestionFallback";
+
 
 	private ReservationRepository reservationRepository;
 	
@@ -45,26 +75,56 @@ public class AddProductCommandHandler implements CommandHandler<AddProductComman
 
 	private SystemContext systemContext;
 	
+	private CommandMetrics metrics = CommandMetrics.getDefault();
+	
 	@Override
 	public Void handle(AddProductCommand command) {
-		Reservation reservation = reservationRepository.load(command.getOrderId());
-		
+		Product product = null;
+		for (int attempt = 1; ; attempt++) {
+			long start = System.nanoTime();
+			Reservation reservation = reservationRepository.load(command.getOrderId());
+			start = metrics.record(RESERVATION_LOAD, start);
+			
+			if (product == null) {
+				product = loadProduct(command);
+				start = System.nanoTime();
+			}
+				
+			reservation.add(product, command.getQuantity());
+			start = metrics.record(RESERVATION_ADD, start);
+			
+			try {
+				reservationRepository.save(reservation);
+				metrics.record(RESERVATION_SAVE, start);
+				return null;
+			} catch (OptimisticLockingException e) {
+				metrics.record(RESERVATION_SAVE, start);
+				if (attempt >= MAX_ATTEMPTS)
+					throw e;
+			}
+		}
+	}
+	
+	private Product loadProduct(AddProductCommand command) {
+		long start = System.nanoTime();
 		Product product = productRepository.load(command.getProductId());
+		start = metrics.record(PRODUCT_LOAD, start);
 		
 		if (! product.isAvailable()){
+			metrics.increment(AVAILABILITY_MISS);
 			Client client = loadClient();	
-			product = suggestionService.suggestEquivalent(product, client);
+			Product equivalent = suggestionService.suggestEquivalent(product, client);
+			metrics.record(SUGGESTION, start);
+			if (equivalent != product)
+				metrics.increment(SUGGESTION_FALLBACK);
+			product = equivalent;
 		}
-			
-		reservation.add(product, command.getQuantity());
-		
-		reservationRepository.save(reservation);
-		
-		return null;
+		return product;
 	}
 	
 	private Client loadClient() {
-		return clientRepository.load(systemContext.getSystemUser().getClientId());
+		return systemContext.requestScoped(Client.class,
+				() -> clientRepository.load(systemContext.getSystemUser().getClientId()));
 	}
 
 }
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2011-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package pl.com.bottega.ecommerce.sales.application.api.handler;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import pl.com.bottega.cqrs.command.handler.CommandHandler;
+import pl.com.bottega.ecommerce.canonicalmodel.publishedlanguage.Id;
+import pl.com.bottega.ecommerce.sales.application.api.command.AddProductsCommand;
+import pl.com.bottega.ecommerce.sales.domain.client.Client;
+import pl.com.bottega.ecommerce.sales.domain.client.ClientRepository;
+import pl.com.bottega.ecommerce.sales.domain.equivalent.SuggestionService;
+import pl.com.bottega.ecommerce.sales.domain.productscatalog.Product;
+import pl.com.bottega.ecommerce.sales.domain.productscatalog.ProductRepository;
+import pl.com.bottega.ecommerce.sales.domain.reservation.Reservation;
+import pl.com.bottega.ecommerce.sales.domain.reservation.ReservationRepository;
+import pl.com.bottega.ecommerce.sharedkernel.exceptions.DomainOperationException.DomainOperationException;
+import pl.com.bottega.ecommerce.sharedkernel.exceptions.OptimisticLockingException.OptimisticLockingException;
+import pl.com.bottega.ecommerce.system.application.SystemContext;
+
+
+/**
+ * Batch version of {@link AddProductCommandHandler}: reservation is loaded and saved once for all products.
+ */
+public class AddProductsCommandHandler implements CommandHandler<AddProductsCommand, Void>{
+
+
+	private ReservationRepository reservationRepository;
+	
+
+	private ProductRepository productRepository;
+	
+
+	private SuggestionService suggestionService;
+	
+
+	private ClientRepository clientRepository;
+	
+
+	private SystemContext systemContext;
+	
+	@Override
+	public Void handle(AddProductsCommand command) {
+		Map<Product, Integer> quantities = null;
+		for (int attempt = 1; ; attempt++) {
+			Reservation reservation = reservationRepository.load(command.getOrderId());
+			
+			if (quantities == null)
+				quantities = loadProducts(command);
+				
+			reservation.addAll(quantities);
+			
+			try {
+				reservationRepository.save(reservation);
+				return null;
+			} catch (OptimisticLockingException e) {
+				if (attempt >= AddProductCommandHandler.MAX_ATTEMPTS)
+					throw e;
+			}
+		}
+	}
+	
+	private Map<Product, Integer> loadProducts(AddProductsCommand command) {
+		Map<Id, Product> products = productRepository.loadAll(command.getQuantities().keySet());
+		
+		Map<Product, Integer> quantities = new LinkedHashMap<Product, Integer>();
+		Client client = null;
+		for (Map.Entry<Id, Integer> entry : command.getQuantities().entrySet()) {
+			Product product = products.get(entry.getKey());
+			if (product == null)
+				throw new DomainOperationException(entry.getKey(), "Product " + entry.getKey() + " does not exist");
+			
+			if (! product.isAvailable()){
+				if (client == null)
+					client = loadClient();
+				product = suggestionService.suggestEquivalent(product, client);
+			}
+			
+			quantities.merge(product, entry.getValue(), Integer::sum);
+		}
+		return quantities;
+	}
+	
+	private Client loadClient() {
+		return systemContext.requestScoped(Client.class,
+				() -> clientRepository.load(systemContext.getSystemUser().getClientId()));
+	}
+
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2011-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package pl.com.bottega.ecommerce.sales.application.api.handler;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+import pl.com.bottega.cqrs.command.CommandBus;
+import pl.com.bottega.cqrs.command.handler.CommandHandler;
+import pl.com.bottega.ecommerce.canonicalmodel.publishedlanguage.Id;
+import pl.com.bottega.ecommerce.sales.application.api.command.AddProductCommand;
+import pl.com.bottega.ecommerce.sales.domain.client.Client;
+import pl.com.bottega.ecommerce.sales.domain.client.ClientRepository;
+import pl.com.bottega.ecommerce.sales.domain.equivalent.SuggestionService;
+import pl.com.bottega.ecommerce.sales.domain.productscatalog.Product;
+import pl.com.bottega.ecommerce.sales.domain.productscatalog.ProductRepository;
+import pl.com.bottega.ecommerce.sales.domain.reservation.Reservation;
+import pl.com.bottega.ecommerce.sales.domain.reservation.ReservationRepository;
+import pl.com.bottega.ecommerce.sharedkernel.exceptions.OptimisticLockingException.OptimisticLockingException;
+import pl.com.bottega.ecommerce.system.application.RequestScope;
+import pl.com.bottega.ecommerce.system.application.SystemContext;
+
+
+/**
+ * Variant of {@link AddProductCommandHandler} for remote stores.<br>
+ * Reservation and product are loaded at the same time. The client, needed
+ * only to suggest an equivalent of an unavailable product, is looked up
+ * together with them while unavailable products are common, otherwise once
+ * the product turns out unavailable. Failures are reported in the order of
+ * {@link AddProductCommandHandler}: reservation, product, client, suggestion,
+ * domain checks of the reservation.
+ */
+public class AsyncAddProductCommandHandler implements CommandHandler<AddProductCommand, Void>{
+
+	/**
+	 * Share of unavailable products, out of {@link #SCORE_SCALE}, above which
+	 * client is looked up in advance
+	 */
+	static final int EARLY_CLIENT_SCORE = 102;
+	
+	private static final int SCORE_SCALE = 1024;
+
+
+	private ReservationRepository reservationRepository;
+	
+
+	private ProductRepository productRepository;
+	
+
+	private SuggestionService suggestionService;
+	
+
+	private ClientRepository clientRepository;
+	
+
+	private SystemContext systemContext;
+	
+	private final Executor executor;
+	
+	/**
+	 * Moving average of unavailable products, updated without synchronization;
+	 * a lost update only delays the switch
+	 */
+	private volatile int unavailableScore;
+	
+	public AsyncAddProductCommandHandler() {
+		this(CommandBus.defaultExecutor());
+	}
+	
+	public AsyncAddProductCommandHandler(Executor executor) {
+		this.executor = executor;
+	}
+	
+	@Override
+	public Void handle(AddProductCommand command) {
+		try {
+			return handleAsync(command).join();
+		} catch (CompletionException e) {
+			throw unwrap(e);
+		}
+	}
+	
+	public CompletableFuture<Void> handleAsync(AddProductCommand command) {
+		RequestScope current = RequestScope.current();
+		RequestScope scope = current != null ? current : new RequestScope();
+		
+		CompletableFuture<Reservation> reservation = loadReservation(command.getOrderId(), scope);
+		CompletableFuture<Client> client = unavailableScore >= EARLY_CLIENT_SCORE
+				? supplyAsync(scope, this::loadClient) : null;
+		CompletableFuture<Product> product = supplyAsync(scope, () -> productRepository.load(command.getProductId()))
+				.thenCompose(loaded -> resolveProduct(loaded, client, scope));
+		
+		return addAndSave(command, reservation, product, scope, 1);
+	}
+	
+	private CompletableFuture<Product> resolveProduct(Product product, CompletableFuture<Client> client,
+			RequestScope scope) {
+		boolean available = product.isAvailable();
+		int score = unavailableScore;
+		unavailableScore = score + (((available ? 0 : SCORE_SCALE) - score) >> 4);
+		
+		if (available)
+			return CompletableFuture.completedFuture(product);
+		
+		CompletableFuture<Client> loaded = client != null ? client : supplyAsync(scope, this::loadClient);
+		return loaded.thenApplyAsync(found -> call(scope, () -> suggestionService.suggestEquivalent(product, found)),
+				executor);
+	}
+	
+	/**
+	 * Adds and saves in scope of the command, on the executor rather than on
+	 * whichever thread completed the last load.
+	 */
+	private CompletableFuture<Void> addAndSave(AddProductCommand command, CompletableFuture<Reservation> reservation,
+			CompletableFuture<Product> product, RequestScope scope, int attempt) {
+		return reservation.thenCombineAsync(product, (loadedReservation, resolvedProduct) -> call(scope, () -> {
+			loadedReservation.add(resolvedProduct, command.getQuantity());
+			reservationRepository.save(loadedReservation);
+			return (Void) null;
+		}), executor).handle((result, failure) -> failure).thenCompose(failure -> {
+			if (failure == null)
+				return CompletableFuture.completedFuture(null);
+			RuntimeException cause = unwrap(failure);
+			if (cause instanceof OptimisticLockingException && attempt < AddProductCommandHandler.MAX_ATTEMPTS)
+				return addAndSave(command, loadReservation(command.getOrderId(), scope), product, scope, attempt + 1);
+			return CompletableFuture.failedFuture(cause);
+		});
+	}
+	
+	private CompletableFuture<Reservation> loadReservation(Id orderId, RequestScope scope) {
+		return supplyAsync(scope, () -> reservationRepository.load(orderId));
+	}
+	
+	private <T> CompletableFuture<T> supplyAsync(RequestScope scope, Supplier<T> supplier) {
+		return CompletableFuture.supplyAsync(() -> call(scope, supplier), executor);
+	}
+	
+	private static <T> T call(RequestScope scope, Supplier<T> supplier) {
+		try {
+			return scope.call(supplier::get);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	private Client loadClient() {
+		return systemContext.requestScoped(Client.class,
+				() -> clientRepository.load(systemContext.getSystemUser().getClientId()));
+	}
+	
+	private static RuntimeException unwrap(Throwable failure) {
+		Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause()
+				: failure;
+		if (cause instanceof RuntimeException)
+			return (RuntimeException) cause;
+		if (cause instanceof Error)
+			throw (Error) cause;
+		return new CompletionException(cause);
+	}
+
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2011-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package pl.com.bottega.ecommerce.sales.application.api.handler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import pl.com.bottega.cqrs.command.AggregateMailboxes;
+import pl.com.bottega.cqrs.command.CommandBus;
+import pl.com.bottega.cqrs.command.handler.CommandHandler;
+import pl.com.bottega.ecommerce.canonicalmodel.publishedlanguage.Id;
+import pl.com.bottega.ecommerce.sales.application.api.command.AddProductCommand;
+import pl.com.bottega.ecommerce.sales.domain.client.Client;
+import pl.com.bottega.ecommerce.sales.domain.client.ClientRepository;
+import pl.com.bottega.ecommerce.sales.domain.equivalent.SuggestionService;
+import pl.com.bottega.ecommerce.sales.domain.productscatalog.Product;
+import pl.com.bottega.ecommerce.sales.domain.productscatalog.ProductRepository;
+import pl.com.bottega.ecommerce.sales.domain.reservation.Reservation;
+import pl.com.bottega.ecommerce.sales.domain.reservation.ReservationRepository;
+import pl.com.bottega.ecommerce.sharedkernel.exceptions.OptimisticLockingException.OptimisticLockingException;
+import pl.com.bottega.ecommerce.system.application.RequestScope;
+import pl.com.bottega.ecommerce.system.application.SystemContext;
+
+
+/**
+ * Variant of {@link AddProductCommandHandler} for bursts of commands on the
+ * same reservation.<br>
+ * Commands are collected per order until the window passes or the batch is
+ * full, then applied in arrival order to a single loaded reservation, which is
+ * saved once. Each command completes on its own: one failing a domain check
+ * does not affect the others of its batch. Batches of the same order are
+ * applied one after another.<br>
+ * The scheduler only fires window timers; batches are applied on the worker
+ * executor, as they block on repositories.<br>
+ * Register it on {@link CommandBus} without an aggregate id: {@link #handle}
+ * blocks until the batch is applied, so behind a per-order mailbox the next
+ * command of the order would not arrive before the window passes, and nothing
+ * would be coalesced. Commands of one order are serialized here anyway.<br>
+ * Each command is applied in the {@link RequestScope} it was submitted in;
+ * commands submitted outside of any scope share one scope per batch.
+ */
+public class CoalescingAddProductCommandHandler implements CommandHandler<AddProductCommand, Void>{
+
+
+	private ReservationRepository reservationRepository;
+	
+
+	private ProductRepository productRepository;
+	
+
+	private SuggestionService suggestionService;
+	
+
+	private ClientRepository clientRepository;
+	
+
+	private SystemContext systemContext;
+	
+	private final long windowNanos;
+	
+	private final int maxBatchSize;
+	
+	private final ScheduledExecutorService scheduler;
+	
+	private final AggregateMailboxes mailboxes;
+	
+	private final ConcurrentMap<Id, Batch> openBatches = new ConcurrentHashMap<Id, Batch>();
+	
+	public CoalescingAddProductCommandHandler(long window, TimeUnit unit, int maxBatchSize,
+			ScheduledExecutorService scheduler) {
+		this(window, unit, maxBatchSize, scheduler, CommandBus.defaultExecutor());
+	}
+	
+	public CoalescingAddProductCommandHandler(long window, TimeUnit unit, int maxBatchSize,
+			ScheduledExecutorService scheduler, Executor worker) {
+		if (maxBatchSize <= 0)
+			throw new IllegalArgumentException("maxBatchSize must be positive");
+		this.windowNanos = unit.toNanos(window);
+		this.maxBatchSize = maxBatchSize;
+		this.scheduler = scheduler;
+		this.mailboxes = new AggregateMailboxes(worker);
+	}
+	
+	/**
+	 * Blocks until the batch containing command is applied. Use
+	 * {@link #submit(AddProductCommand)} to wait without blocking.
+	 */
+	@Override
+	public Void handle(AddProductCommand command) {
+		try {
+			return submit(command).join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw e;
+		}
+	}
+	
+	public CompletableFuture<Void> submit(AddProductCommand command) {
+		final Id orderId = command.getOrderId();
+		final Pending pending = new Pending(command, RequestScope.current());
+		final Batch[] opened = new Batch[1];
+		final Batch[] full = new Batch[1];
+		openBatches.compute(orderId, (id, batch) -> {
+			if (batch == null) {
+				batch = new Batch();
+				opened[0] = batch;
+			}
+			batch.commands.add(pending);
+			if (batch.commands.size() >= maxBatchSize) {
+				full[0] = batch;
+				return null;
+			}
+			return batch;
+		});
+		
+		if (full[0] != null) {
+			if (full[0].timer != null)
+				full[0].timer.cancel(false);
+			apply(orderId, full[0]);
+		} else if (opened[0] != null) {
+			final Batch batch = opened[0];
+			batch.timer = scheduler.schedule(() -> {
+				if (openBatches.remove(orderId, batch))
+					apply(orderId, batch);
+			}, windowNanos, TimeUnit.NANOSECONDS);
+		}
+		return pending.result;
+	}
+	
+	private void apply(Id orderId, Batch batch) {
+		mailboxes.execute(orderId, () -> applyAll(orderId, batch.commands),
+				rejected -> failAll(batch.commands, rejected));
+	}
+	
+	private void applyAll(Id orderId, List<Pending> commands) {
+		RequestScope batchScope = new RequestScope();
+		for (int attempt = 1; ; attempt++) {
+			List<Pending> applied = new ArrayList<Pending>(commands.size());
+			try {
+				Reservation reservation = reservationRepository.load(orderId);
+				for (Pending pending : commands) {
+					pending.failure = null;
+					try {
+						RequestScope scope = pending.scope != null ? pending.scope : batchScope;
+						scope.run(() -> {
+							if (pending.product == null)
+								pending.product = loadProduct(pending.command);
+							reservation.add(pending.product, pending.command.getQuantity());
+						});
+						applied.add(pending);
+					} catch (RuntimeException e) {
+						pending.failure = e;
+					}
+				}
+				if (!applied.isEmpty())
+					reservationRepository.save(reservation);
+			} catch (OptimisticLockingException e) {
+				if (attempt < AddProductCommandHandler.MAX_ATTEMPTS)
+					continue;
+				failAll(commands, e);
+				return;
+			} catch (RuntimeException e) {
+				failAll(commands, e);
+				return;
+			}
+			
+			for (Pending pending : commands) {
+				if (pending.failure != null)
+					pending.result.completeExceptionally(pending.failure);
+				else
+					pending.result.complete(null);
+			}
+			return;
+		}
+	}
+	
+	private static void failAll(List<Pending> commands, RuntimeException e) {
+		for (Pending pending : commands) {
+			pending.result.completeExceptionally(pending.failure != null ? pending.failure : e);
+		}
+	}
+	
+	private Product loadProduct(AddProductCommand command) {
+		Product product = productRepository.load(command.getProductId());
+		
+		if (! product.isAvailable()){
+			Client client = loadClient();	
+			product = suggestionService.suggestEquivalent(product, client);
+		}
+		return product;
+	}
+	
+	private Client loadClient() {
+		return systemContext.requestScoped(Client.class,
+				() -> clientRepository.load(systemContext.getSystemUser().getClientId()));
+	}
+	
+	private static class Batch {
+		private final List<Pending> commands = new ArrayList<Pending>();
+		
+		private volatile ScheduledFuture<?> timer;
+	}
+	
+	private static class Pending {
+		private final AddProductCommand command;
+		
+		/**
+		 * Scope of the submitter, null if it had none
+		 */
+		private final RequestScope scope;
+		
+		private final CompletableFuture<Void> result = new CompletableFuture<Void>();
+		
+		private Product product;
+		
+		private RuntimeException failure;
+		
+		Pending(AddProductCommand command, RequestScope scope) {
+			this.command = command;
+			this.scope = scope;
+		}
+	}
+
+}
@@ -1,9 +1,21 @@
 package pl.com.bottega.ecommerce.sales.domain.client;
 
+import java.util.Collection;
+import java.util.Map;
+
+import pl.com.bottega.ddd.support.domain.BulkLoad;
 import pl.com.bottega.ecommerce.canonicalmodel.publishedlanguage.Id;
 
 public interface ClientRepository {
 	public Client load(Id id);
 
+	/**
+	 * 
+	 * @return found clients by id, in order of ids
+	 */
+	public default Map<Id, Client> loadAll(Collection<Id> ids) {
+		return BulkLoad.loadOneByOne(ids, this::load);
+	}
+
 	public void save(Client client);
 }
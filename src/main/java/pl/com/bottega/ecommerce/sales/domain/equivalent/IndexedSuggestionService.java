@@ -0,0 +1,288 @@
+package pl.com.bottega.ecommerce.sales.domain.equivalent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import pl.com.bottega.ecommerce.canonicalmodel.publishedlanguage.Id;
+import pl.com.bottega.ecommerce.sales.domain.client.Client;
+import pl.com.bottega.ecommerce.sales.domain.productscatalog.Product;
+import pl.com.bottega.ecommerce.sales.domain.productscatalog.ProductType;
+import pl.com.bottega.ecommerce.sharedkernel.Money;
+
+/**
+ * Suggests the available product of the same type and currency with the
+ * closest price, looking in the price band of the problematic product first,
+ * then in neighbouring bands, cheaper one first. Products the client can not
+ * afford are skipped. When there is no equivalent the problematic product
+ * itself is returned.<br>
+ * Products are kept in buckets by type, currency and price band, each an
+ * immutable array sorted by price, so a lookup is a binary search and a short
+ * walk without locks. Changes replace only the affected buckets: call
+ * {@link #update(Product)} after a product is saved, e.g. repriced or
+ * archived with {@link Product#markAsRemoved()}.
+ */
+public class IndexedSuggestionService implements SuggestionService {
+
+	/**
+	 * How many bands away from the problematic product's band equivalents
+	 * are looked for
+	 */
+	static final int MAX_BAND_DISTANCE = 1;
+
+	private static final Money[] DEFAULT_BAND_LIMITS = { new Money(10), new Money(20), new Money(50),
+			new Money(100), new Money(200), new Money(500), new Money(1000), new Money(2000), new Money(5000) };
+
+	private static final Comparator<Candidate> BY_PRICE = (first, second) -> {
+		if (first.price.lessThan(second.price))
+			return -1;
+		if (first.price.greaterThan(second.price))
+			return 1;
+		return first.product.getId().toString().compareTo(second.product.getId().toString());
+	};
+
+	private static final Candidate[] EMPTY = new Candidate[0];
+
+	private final Money[] bandLimits;
+
+	private final ConcurrentMap<Bucket, Candidate[]> buckets = new ConcurrentHashMap<Bucket, Candidate[]>();
+
+	/**
+	 * Guarded by this
+	 */
+	private final Map<Id, Candidate> indexed = new HashMap<Id, Candidate>();
+
+	/**
+	 * Bands limited at 10, 20, 50, 100, 200, 500, 1000, 2000 and 5000.
+	 */
+	public IndexedSuggestionService() {
+		this(DEFAULT_BAND_LIMITS);
+	}
+
+	/**
+	 * 
+	 * @param bandLimits
+	 *            ascending lower limits of price bands, except the lowest band
+	 *            which starts at zero; amounts are compared regardless of
+	 *            currency
+	 */
+	public IndexedSuggestionService(Money... bandLimits) {
+		for (int i = 1; i < bandLimits.length; i++) {
+			if (!bandLimits[i - 1].lessThan(bandLimits[i]))
+				throw new IllegalArgumentException("Band limits must be ascending");
+		}
+		this.bandLimits = bandLimits.clone();
+	}
+
+	/**
+	 * Adds product to index, moves it to its current price band or drops it
+	 * if it is no longer available.
+	 */
+	public void update(Product product) {
+		updateAll(Collections.singletonList(product));
+	}
+
+	/**
+	 * {@link #update(Product)} of many products, replacing every affected
+	 * bucket once. When products contains several instances with the same id
+	 * the last one wins.
+	 */
+	public synchronized void updateAll(Iterable<Product> products) {
+		Map<Id, Product> latest = new LinkedHashMap<Id, Product>();
+		for (Product product : products)
+			latest.put(product.getId(), product);
+
+		Map<Bucket, Changes> changes = new HashMap<Bucket, Changes>();
+		for (Product product : latest.values()) {
+			Candidate previous = indexed.get(product.getId());
+			if (previous != null && previous.revision == product.getRevision() && previous.product == product)
+				continue;
+
+			if (previous != null) {
+				indexed.remove(product.getId());
+				changes.computeIfAbsent(previous.bucket, bucket -> new Changes()).removed.add(previous);
+			}
+			if (product.isAvailable()) {
+				Money price = product.getPrice();
+				Candidate candidate = new Candidate(product, price, product.getRevision(), new Bucket(
+						product.getProductType(), price.getCurrencyCode(), bandOf(price)));
+				indexed.put(product.getId(), candidate);
+				changes.computeIfAbsent(candidate.bucket, bucket -> new Changes()).added.add(candidate);
+			}
+		}
+		for (Map.Entry<Bucket, Changes> change : changes.entrySet())
+			replace(change.getKey(), change.getValue());
+	}
+
+	@Override
+	public Product suggestEquivalent(Product problematicProduct, Client client) {
+		Money price = problematicProduct.getPrice();
+		ProductType productType = problematicProduct.getProductType();
+		String currencyCode = price.getCurrencyCode();
+		int band = bandOf(price);
+
+		for (int distance = 0; distance <= MAX_BAND_DISTANCE; distance++) {
+			Product found = closestIn(new Bucket(productType, currencyCode, band - distance), problematicProduct,
+					client);
+			if (found == null && distance > 0)
+				found = closestIn(new Bucket(productType, currencyCode, band + distance), problematicProduct, client);
+			if (found != null)
+				return found;
+		}
+		return problematicProduct;
+	}
+
+	/**
+	 * 
+	 * @return number of indexed, available products
+	 */
+	public synchronized int size() {
+		return indexed.size();
+	}
+
+	private Product closestIn(Bucket bucket, Product problematicProduct, Client client) {
+		Candidate[] candidates = buckets.get(bucket);
+		if (candidates == null)
+			return null;
+
+		Money price = problematicProduct.getPrice();
+		int high = insertionPoint(candidates, price);
+		int low = high - 1;
+		while (low >= 0 || high < candidates.length) {
+			Candidate next;
+			if (low < 0)
+				next = candidates[high++];
+			else if (high >= candidates.length)
+				next = candidates[low--];
+			else if (price.subtract(candidates[low].price).lessOrEquals(candidates[high].price.subtract(price)))
+				next = candidates[low--];
+			else
+				next = candidates[high++];
+
+			Product product = next.product;
+			if (!product.getId().equals(problematicProduct.getId()) && product.isAvailable()
+					&& (client == null || client.canAfford(next.price)))
+				return product;
+		}
+		return null;
+	}
+
+	private static int insertionPoint(Candidate[] candidates, Money price) {
+		int low = 0;
+		int high = candidates.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (candidates[middle].price.lessThan(price))
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+	private int bandOf(Money price) {
+		int low = 0;
+		int high = bandLimits.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (bandLimits[middle].lessOrEquals(price))
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low;
+	}
+
+	/**
+	 * Publishes a new array for bucket: current one without removed and with
+	 * added candidates merged in. Called under lock of this.
+	 */
+	private void replace(Bucket bucket, Changes changes) {
+		Candidate[] current = buckets.getOrDefault(bucket, EMPTY);
+		List<Candidate> added = changes.added;
+		added.sort(BY_PRICE);
+		Candidate[] replaced = new Candidate[current.length + added.size() - changes.removed.size()];
+		int position = 0;
+		int next = 0;
+		for (Candidate candidate : current) {
+			if (changes.removed.contains(candidate))
+				continue;
+			while (next < added.size() && BY_PRICE.compare(added.get(next), candidate) < 0)
+				replaced[position++] = added.get(next++);
+			replaced[position++] = candidate;
+		}
+		while (next < added.size())
+			replaced[position++] = added.get(next++);
+
+		if (replaced.length == 0)
+			buckets.remove(bucket);
+		else
+			buckets.put(bucket, replaced);
+	}
+
+	private static class Changes {
+		private final Set<Candidate> removed = Collections.newSetFromMap(new IdentityHashMap<Candidate, Boolean>());
+
+		private final List<Candidate> added = new ArrayList<Candidate>();
+	}
+
+	private static class Candidate {
+		private final Product product;
+
+		private final Money price;
+
+		private final long revision;
+
+		private final Bucket bucket;
+
+		Candidate(Product product, Money price, long revision, Bucket bucket) {
+			this.product = product;
+			this.price = price;
+			this.revision = revision;
+			this.bucket = bucket;
+		}
+	}
+
+	private static class Bucket {
+		private final ProductType productType;
+
+		private final String currencyCode;
+
+		private final int band;
+
+		Bucket(ProductType productType, String currencyCode, int band) {
+			this.productType = productType;
+			this.currencyCode = currencyCode;
+			this.band = band;
+		}
+
+		@Override
+		public int hashCode() {
+			return (productType.hashCode() * 31 + currencyCode.hashCode()) * 31 + band;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Bucket))
+				return false;
+			Bucket other = (Bucket) obj;
+			return band == other.band && productType == other.productType
+					&& currencyCode.equals(other.currencyCode);
+		}
+
+		@Override
+		public String toString() {
+			return productType + " " + currencyCode + " band " + band;
+		}
+	}
+}
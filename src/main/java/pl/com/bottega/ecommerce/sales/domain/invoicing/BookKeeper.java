@@ -15,6 +15,9 @@
  */
 package pl.com.bottega.ecommerce.sales.domain.invoicing;
 
+import java.util.Currency;
+
+import pl.com.bottega.ecommerce.sharedkernel.ExchangeRates;
 import pl.com.bottega.ecommerce.sharedkernel.Money;
 
 public class BookKeeper {
@@ -39,4 +42,26 @@ public class BookKeeper {
 		return invoice;
 	}
 
+	/**
+	 * Issues invoice in given currency. Items priced in other currencies are converted before tax is calculated.
+	 * 
+	 * @param rates snapshot used for all items of the invoice
+	 */
+	public Invoice issuance(InvoiceRequest invoiceRequest, TaxPolicy taxPolicy, ExchangeRates rates,
+			Currency invoiceCurrency) {
+		Invoice invoice = invoiceFactory.create(invoiceRequest.getClientData());
+
+		for (RequestItem item : invoiceRequest.getItems()) {
+			Money net = rates.convert(item.getTotalCost(), invoiceCurrency);
+			Tax tax = taxPolicy.calculateTax(item.getProductData().getType(),
+					net);
+
+			InvoiceLine invoiceLine = new InvoiceLine(item.getProductData(),
+					item.getQuantity(), net, tax);
+			invoice.addItem(invoiceLine);
+		}
+
+		return invoice;
+	}
+
 }
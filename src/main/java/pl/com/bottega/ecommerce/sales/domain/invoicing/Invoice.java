@@ -22,6 +22,7 @@ import java.util.List;
 import pl.com.bottega.ecommerce.canonicalmodel.publishedlanguage.Id;
 import pl.com.bottega.ecommerce.canonicalmodel.publishedlanguage.ClientData;
 import pl.com.bottega.ecommerce.sharedkernel.Money;
+import pl.com.bottega.ecommerce.sharedkernel.MoneyAccumulator;
 
 
 public class Invoice  {
@@ -30,9 +31,9 @@ public class Invoice  {
 	private ClientData client;
 
 
-	private Money net;
+	private MoneyAccumulator net;
 
-	private Money gros;
+	private MoneyAccumulator gros;
 
 	private List<InvoiceLine> items;
 
@@ -44,16 +45,16 @@ public class Invoice  {
 		this.client = client;
 		this.items = new ArrayList<InvoiceLine>();
 		
-		this.net = Money.ZERO;
-		this.gros = Money.ZERO;
+		this.net = new MoneyAccumulator();
+		this.gros = new MoneyAccumulator();
 	}
 	
 
 	public void addItem(InvoiceLine item) {
 		items.add(item);
 
-		net = net.add(item.getNet());
-		gros = gros.add(item.getGros());
+		net.add(item.getNet());
+		gros.add(item.getGros());
 	}
 
 	/**
@@ -69,11 +70,11 @@ public class Invoice  {
 	}
 
 	public Money getNet() {
-		return net;
+		return net.toMoney();
 	}
 
 	public Money getGros() {
-		return gros;
+		return gros.toMoney();
 	}
 
 }
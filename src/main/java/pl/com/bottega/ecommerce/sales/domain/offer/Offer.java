@@ -1,9 +1,13 @@
 package pl.com.bottega.ecommerce.sales.domain.offer;
 
 import java.util.ArrayList;
+import java.util.Currency;
 import java.util.List;
 
 import pl.com.bottega.ecommerce.canonicalmodel.publishedlanguage.Id;
+import pl.com.bottega.ecommerce.sharedkernel.ExchangeRates;
+import pl.com.bottega.ecommerce.sharedkernel.Money;
+import pl.com.bottega.ecommerce.sharedkernel.MoneyAccumulator;
 
 public class Offer {
 private List<OfferItem> availabeItems = new ArrayList<OfferItem>();
@@ -24,6 +28,32 @@ private List<OfferItem> availabeItems = new ArrayList<OfferItem>();
 		return unavailableItems;
 	}
 
+	/**
+	 * 
+	 * @return total cost of available items
+	 */
+	public Money getTotalCost() {
+		MoneyAccumulator total = new MoneyAccumulator();
+		for (OfferItem item : availabeItems) {
+			total.add(item.getTotalCost());
+		}
+		return total.toMoney();
+	}
+
+	/**
+	 * 
+	 * @param rates snapshot used for all items
+	 * @param currency currency of the result
+	 * @return total cost of available items, which may be priced in different currencies
+	 */
+	public Money getTotalCost(ExchangeRates rates, Currency currency) {
+		List<Money> costs = new ArrayList<Money>(availabeItems.size());
+		for (OfferItem item : availabeItems) {
+			costs.add(item.getTotalCost());
+		}
+		return rates.total(costs, currency);
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
@@ -0,0 +1,328 @@
+package pl.com.bottega.ecommerce.sales.domain.productscatalog;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import pl.com.bottega.ecommerce.canonicalmodel.publishedlanguage.Id;
+
+/**
+ * Read through cache of products in front of another {@link ProductRepository}.<br>
+ * Holds at most <code>maximumSize</code> products. When full, a newly loaded
+ * product is kept only if it was requested more often recently than the least
+ * recently used cached one, which is then evicted (TinyLFU admission, see
+ * {@link FrequencySketch}). A burst of one-off lookups therefore does not push
+ * hot products out.<br>
+ * Concurrent misses for the same id share a single backend load. Hits take no
+ * locks; recency of a hit is recorded only if the policy lock is free.<br>
+ * Cached products are shared instances. A product removed or repriced through
+ * another instance must be dropped with {@link #invalidate(Id)}.
+ */
+public class CachingProductRepository implements ProductRepository {
+
+	private final ProductRepository backend;
+
+	private final int maximumSize;
+
+	private final ConcurrentMap<Id, Product> products = new ConcurrentHashMap<Id, Product>();
+
+	private final ConcurrentMap<Id, CompletableFuture<Product>> loading =
+			new ConcurrentHashMap<Id, CompletableFuture<Product>>();
+
+	/**
+	 * Guarded by policyLock, least recently used first
+	 */
+	private final LinkedHashMap<Id, Product> recency = new LinkedHashMap<Id, Product>(16, 0.75f, true);
+
+	private final ReentrantLock policyLock = new ReentrantLock();
+
+	private final FrequencySketch sketch;
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	private final LongAdder loads = new LongAdder();
+
+	private final LongAdder evictions = new LongAdder();
+
+	private final LongAdder rejections = new LongAdder();
+
+	public CachingProductRepository(ProductRepository backend, int maximumSize) {
+		if (maximumSize <= 0)
+			throw new IllegalArgumentException("maximumSize must be positive");
+		this.backend = backend;
+		this.maximumSize = maximumSize;
+		this.sketch = new FrequencySketch(maximumSize);
+	}
+
+	@Override
+	public Product load(Id productId) {
+		sketch.increment(productId);
+		Product product = products.get(productId);
+		if (product != null) {
+			recordHit(productId);
+			return product;
+		}
+
+		misses.increment();
+		CompletableFuture<Product> future = new CompletableFuture<Product>();
+		CompletableFuture<Product> pending = loading.putIfAbsent(productId, future);
+		if (pending != null)
+			return join(pending);
+
+		try {
+			loads.increment();
+			product = backend.load(productId);
+		} catch (RuntimeException e) {
+			loading.remove(productId, future);
+			future.completeExceptionally(e);
+			throw e;
+		}
+		policyLock.lock();
+		try {
+			// not admitted if invalidated while loading
+			if (loading.remove(productId, future) && product != null)
+				admit(productId, product);
+		} finally {
+			policyLock.unlock();
+		}
+		future.complete(product);
+		return product;
+	}
+
+	/**
+	 * Cached products are served from cache, all missing ones are loaded with
+	 * a single {@link ProductRepository#loadAll(Collection)} of backend.
+	 */
+	@Override
+	public Map<Id, Product> loadAll(Collection<Id> productIds) {
+		Map<Id, Product> found = new HashMap<Id, Product>(productIds.size() * 2);
+		Map<Id, CompletableFuture<Product>> owned = new LinkedHashMap<Id, CompletableFuture<Product>>();
+		Map<Id, CompletableFuture<Product>> pending = new HashMap<Id, CompletableFuture<Product>>();
+		for (Id productId : new LinkedHashSet<Id>(productIds)) {
+			sketch.increment(productId);
+			Product product = products.get(productId);
+			if (product != null) {
+				recordHit(productId);
+				found.put(productId, product);
+				continue;
+			}
+			misses.increment();
+			CompletableFuture<Product> future = new CompletableFuture<Product>();
+			CompletableFuture<Product> existing = loading.putIfAbsent(productId, future);
+			if (existing != null)
+				pending.put(productId, existing);
+			else
+				owned.put(productId, future);
+		}
+
+		if (!owned.isEmpty()) {
+			Map<Id, Product> loaded;
+			try {
+				loads.increment();
+				loaded = backend.loadAll(owned.keySet());
+			} catch (RuntimeException e) {
+				for (Map.Entry<Id, CompletableFuture<Product>> entry : owned.entrySet()) {
+					loading.remove(entry.getKey(), entry.getValue());
+					entry.getValue().completeExceptionally(e);
+				}
+				throw e;
+			}
+			policyLock.lock();
+			try {
+				for (Map.Entry<Id, CompletableFuture<Product>> entry : owned.entrySet()) {
+					Product product = loaded.get(entry.getKey());
+					if (loading.remove(entry.getKey(), entry.getValue()) && product != null)
+						admit(entry.getKey(), product);
+				}
+			} finally {
+				policyLock.unlock();
+			}
+			for (Map.Entry<Id, CompletableFuture<Product>> entry : owned.entrySet()) {
+				Product product = loaded.get(entry.getKey());
+				entry.getValue().complete(product);
+				if (product != null)
+					found.put(entry.getKey(), product);
+			}
+		}
+
+		for (Map.Entry<Id, CompletableFuture<Product>> entry : pending.entrySet()) {
+			Product product = join(entry.getValue());
+			if (product != null)
+				found.put(entry.getKey(), product);
+		}
+
+		Map<Id, Product> result = new LinkedHashMap<Id, Product>(found.size() * 2);
+		for (Id productId : productIds) {
+			Product product = found.get(productId);
+			if (product != null)
+				result.put(productId, product);
+		}
+		return result;
+	}
+
+	private void recordHit(Id productId) {
+		hits.increment();
+		if (policyLock.tryLock()) {
+			try {
+				recency.get(productId);
+			} finally {
+				policyLock.unlock();
+			}
+		}
+	}
+
+	private void admit(Id productId, Product product) {
+		products.put(productId, product);
+		recency.put(productId, product);
+		if (recency.size() <= maximumSize)
+			return;
+
+		Iterator<Id> leastRecent = recency.keySet().iterator();
+		Id victim = leastRecent.next();
+		if (!victim.equals(productId) && sketch.frequency(productId) <= sketch.frequency(victim)) {
+			recency.remove(productId);
+			products.remove(productId);
+			rejections.increment();
+		} else {
+			leastRecent.remove();
+			products.remove(victim);
+			evictions.increment();
+		}
+	}
+
+	private static Product join(CompletableFuture<Product> pending) {
+		try {
+			return pending.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw e;
+		}
+	}
+
+	/**
+	 * Drops cached product, next load goes to backend. Call after the product
+	 * was removed or repriced elsewhere.
+	 */
+	public void invalidate(Id productId) {
+		policyLock.lock();
+		try {
+			loading.remove(productId);
+			recency.remove(productId);
+			products.remove(productId);
+		} finally {
+			policyLock.unlock();
+		}
+	}
+
+	public void invalidateAll() {
+		policyLock.lock();
+		try {
+			loading.clear();
+			recency.clear();
+			products.clear();
+		} finally {
+			policyLock.unlock();
+		}
+	}
+
+	/**
+	 * Not cached, goes to backend every time.
+	 */
+	@Override
+	public List<Product> findProductWhereBestBeforeExpiredIn(int days) {
+		return backend.findProductWhereBestBeforeExpiredIn(days);
+	}
+
+	/**
+	 * Not cached, goes to backend every time.
+	 */
+	@Override
+	public Iterator<Product> iterateProductsWhereBestBeforeExpiredIn(int days) {
+		return backend.iterateProductsWhereBestBeforeExpiredIn(days);
+	}
+
+	public int size() {
+		return products.size();
+	}
+
+	public Statistics getStatistics() {
+		return new Statistics(hits.sum(), misses.sum(), loads.sum(), evictions.sum(), rejections.sum());
+	}
+
+	public static class Statistics {
+		private final long hitCount;
+
+		private final long missCount;
+
+		private final long loadCount;
+
+		private final long evictionCount;
+
+		private final long rejectionCount;
+
+		Statistics(long hitCount, long missCount, long loadCount, long evictionCount, long rejectionCount) {
+			this.hitCount = hitCount;
+			this.missCount = missCount;
+			this.loadCount = loadCount;
+			this.evictionCount = evictionCount;
+			this.rejectionCount = rejectionCount;
+		}
+
+		public long getHitCount() {
+			return hitCount;
+		}
+
+		/**
+		 * 
+		 * @return lookups not found in cache, including ones that waited for
+		 *         a load started by another thread
+		 */
+		public long getMissCount() {
+			return missCount;
+		}
+
+		/**
+		 * 
+		 * @return backend loads
+		 */
+		public long getLoadCount() {
+			return loadCount;
+		}
+
+		public long getEvictionCount() {
+			return evictionCount;
+		}
+
+		/**
+		 * 
+		 * @return loaded products not admitted to cache
+		 */
+		public long getRejectionCount() {
+			return rejectionCount;
+		}
+
+		public double getHitRate() {
+			long requests = hitCount + missCount;
+			return requests == 0 ? 1.0 : (double) hitCount / requests;
+		}
+
+		@Override
+		public String toString() {
+			return "hits=" + hitCount + ", misses=" + missCount + ", loads=" + loadCount + ", evictions="
+					+ evictionCount + ", rejections=" + rejectionCount;
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package pl.com.bottega.ecommerce.sales.domain.productscatalog;
+
+import java.time.ZoneId;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import pl.com.bottega.ecommerce.canonicalmodel.publishedlanguage.Id;
+
+/**
+ * Products with best before date grouped in buckets by day. Finding products
+ * expiring up to a given day visits only buckets up to that day, so it costs
+ * about the number of matching products.<br>
+ * Products move to the bucket of their new best before date, or leave the
+ * index once removed, on {@link #update(Product)}.<br>
+ * Thread safe. Iterators are weakly consistent: they never fail, and reflect
+ * some or all changes made while iterating, but never return a product whose
+ * current best before date is after the given one.
+ */
+public class ExpiryIndex {
+
+	private final ZoneId zone;
+
+	private final NavigableMap<Long, Map<Id, Product>> buckets = new ConcurrentSkipListMap<Long, Map<Id, Product>>();
+
+	private final ConcurrentMap<Id, Long> days = new ConcurrentHashMap<Id, Long>();
+
+	public ExpiryIndex(ZoneId zone) {
+		this.zone = zone;
+	}
+
+	/**
+	 * Adds product or moves it to bucket of its current best before date.
+	 * Products without the date and removed ones are dropped from index.
+	 */
+	public synchronized void update(Product product) {
+		Id id = product.getId();
+		Long previousDay = days.get(id);
+		Long day = product.isRemoved() || product.getBestBefore() == null ? null : day(product.getBestBefore());
+
+		if (previousDay != null && !previousDay.equals(day)) {
+			Map<Id, Product> bucket = buckets.get(previousDay);
+			bucket.remove(id);
+			if (bucket.isEmpty())
+				buckets.remove(previousDay);
+		}
+		if (day == null) {
+			days.remove(id);
+			return;
+		}
+		Map<Id, Product> bucket = buckets.get(day);
+		if (bucket == null) {
+			bucket = new ConcurrentHashMap<Id, Product>();
+			buckets.put(day, bucket);
+		}
+		bucket.put(id, product);
+		days.put(id, day);
+	}
+
+	public synchronized void remove(Id productId) {
+		Long day = days.remove(productId);
+		if (day == null)
+			return;
+		Map<Id, Product> bucket = buckets.get(day);
+		bucket.remove(productId);
+		if (bucket.isEmpty())
+			buckets.remove(day);
+	}
+
+	/**
+	 * 
+	 * @return available products with best before date not after given
+	 *         date, earliest first
+	 */
+	public Iterator<Product> expiringUntil(Date date) {
+		final long lastDay = day(date);
+		final Iterator<Map<Id, Product>> bucketIterator = buckets.headMap(lastDay, true).values().iterator();
+		return new Iterator<Product>() {
+			private Iterator<Product> current = Collections.<Product> emptyIterator();
+
+			private Product next;
+
+			@Override
+			public boolean hasNext() {
+				while (next == null) {
+					while (!current.hasNext()) {
+						if (!bucketIterator.hasNext())
+							return false;
+						current = bucketIterator.next().values().iterator();
+					}
+					Product candidate = current.next();
+					// removed or moved to a later day while iterating
+					Date bestBefore = candidate.getBestBefore();
+					if (candidate.isAvailable() && bestBefore != null && day(bestBefore) <= lastDay)
+						next = candidate;
+				}
+				return true;
+			}
+
+			@Override
+			public Product next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				Product result = next;
+				next = null;
+				return result;
+			}
+		};
+	}
+
+	private long day(Date date) {
+		return date.toInstant().atZone(zone).toLocalDate().toEpochDay();
+	}
+}
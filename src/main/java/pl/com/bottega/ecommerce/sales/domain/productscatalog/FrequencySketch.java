@@ -0,0 +1,98 @@
+package pl.com.bottega.ecommerce.sales.domain.productscatalog;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Count-min sketch of 4 bit counters estimating how often keys were seen
+ * recently (TinyLFU). All counters are halved after a number of increments
+ * proportional to the sketch size, so old popularity fades.<br>
+ * Safe for concurrent use without locks. Counters are updated by compare and
+ * set on their word, so a counter never overflows into its neighbour; the
+ * count of additions is not synchronized and may drift, which only shifts
+ * the moment of halving.
+ */
+class FrequencySketch {
+
+	private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL,
+			0xcbf29ce484222325L };
+
+	private static final long RESET_MASK = 0x7777777777777777L;
+
+	private static final int MAX_COUNT = 15;
+
+	private final AtomicLongArray table;
+
+	private final int sampleSize;
+
+	private int additions;
+
+	/**
+	 * 
+	 * @param expectedSize
+	 *            number of keys to tell apart, usually the cache capacity
+	 */
+	FrequencySketch(int expectedSize) {
+		int length = Integer.highestOneBit(Math.max(expectedSize, 16) - 1) << 1;
+		this.table = new AtomicLongArray(length);
+		this.sampleSize = 10 * length;
+	}
+
+	int frequency(Object key) {
+		int hash = spread(key.hashCode());
+		int frequency = MAX_COUNT;
+		for (int i = 0; i < SEEDS.length; i++) {
+			long bits = indexHash(hash, i);
+			int shift = (int) (bits & 15) << 2;
+			frequency = Math.min(frequency, (int) ((table.get(index(bits)) >>> shift) & 15));
+		}
+		return frequency;
+	}
+
+	void increment(Object key) {
+		int hash = spread(key.hashCode());
+		boolean added = false;
+		for (int i = 0; i < SEEDS.length; i++) {
+			long bits = indexHash(hash, i);
+			int index = index(bits);
+			int shift = (int) (bits & 15) << 2;
+			added |= incrementAt(index, shift);
+		}
+		if (added && ++additions >= sampleSize)
+			reset();
+	}
+
+	/**
+	 * 
+	 * @return false if counter was already saturated
+	 */
+	private boolean incrementAt(int index, int shift) {
+		for (;;) {
+			long word = table.get(index);
+			if (((word >>> shift) & 15) == MAX_COUNT)
+				return false;
+			if (table.compareAndSet(index, word, word + (1L << shift)))
+				return true;
+		}
+	}
+
+	private void reset() {
+		for (int i = 0; i < table.length(); i++) {
+			table.getAndUpdate(i, word -> (word >>> 1) & RESET_MASK);
+		}
+		additions /= 2;
+	}
+
+	private int index(long bits) {
+		return (int) (bits >>> 4) & (table.length() - 1);
+	}
+
+	private static long indexHash(int hash, int i) {
+		long bits = (hash + SEEDS[i]) * SEEDS[i];
+		return bits ^ (bits >>> 32);
+	}
+
+	private static int spread(int hash) {
+		hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+		return (hash >>> 16) ^ hash;
+	}
+}
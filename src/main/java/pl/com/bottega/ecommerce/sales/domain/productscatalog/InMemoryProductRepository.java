@@ -0,0 +1,69 @@
+package pl.com.bottega.ecommerce.sales.domain.productscatalog;
+
+import java.time.Clock;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import pl.com.bottega.ecommerce.canonicalmodel.publishedlanguage.Id;
+
+/**
+ * Thread safe, in memory product catalog with an {@link ExpiryIndex} behind
+ * best before queries. Products are shared, not copied, but the index is
+ * maintained only here: call {@link #save(Product)} after changing best before
+ * date of a product or removing it.
+ */
+public class InMemoryProductRepository implements ProductRepository {
+
+	private final ConcurrentMap<Id, Product> products = new ConcurrentHashMap<Id, Product>();
+
+	private final ExpiryIndex expiryIndex;
+
+	private final Clock clock;
+
+	public InMemoryProductRepository() {
+		this(Clock.systemDefaultZone());
+	}
+
+	public InMemoryProductRepository(Clock clock) {
+		this.clock = clock;
+		this.expiryIndex = new ExpiryIndex(clock.getZone());
+	}
+
+	@Override
+	public Product load(Id productId) {
+		return products.get(productId);
+	}
+
+	public void save(Product product) {
+		products.put(product.getId(), product);
+		expiryIndex.update(product);
+	}
+
+	@Override
+	public List<Product> findProductWhereBestBeforeExpiredIn(int days) {
+		List<Product> result = new ArrayList<Product>();
+		Iterator<Product> matching = iterateProductsWhereBestBeforeExpiredIn(days);
+		while (matching.hasNext()) {
+			result.add(matching.next());
+		}
+		return result;
+	}
+
+	/**
+	 * 
+	 * @return available products with best before date at most given number
+	 *         of days from today, including already expired ones
+	 */
+	@Override
+	public Iterator<Product> iterateProductsWhereBestBeforeExpiredIn(int days) {
+		ZoneId zone = clock.getZone();
+		Date until = Date.from(clock.instant().atZone(zone).toLocalDate().plusDays(days).atStartOfDay(zone)
+				.toInstant());
+		return expiryIndex.expiringUntil(until);
+	}
+}
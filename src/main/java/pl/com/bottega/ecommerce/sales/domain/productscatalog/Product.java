@@ -14,6 +14,16 @@ public class Product extends BaseAggregateRoot {
 
     private ProductType productType;
 
+    /**
+     * Null for products that do not expire
+     */
+    private Date bestBefore;
+
+    /**
+     * Incremented whenever price or availability changes, lets holders of derived data (offers) detect staleness.
+     */
+    private long revision;
+
     public Product(Id aggregateId, Money price, String name, ProductType productType) {
         this.id = aggregateId;
         this.price = price;
@@ -21,10 +31,33 @@ public class Product extends BaseAggregateRoot {
         this.productType = productType;
     }
 
+    public Product(Id aggregateId, Money price, String name, ProductType productType, Date bestBefore) {
+        this(aggregateId, price, name, productType);
+        this.bestBefore = bestBefore;
+    }
+
     public boolean isAvailable() {
         return !isRemoved();
     }
 
+    @Override
+    public void markAsRemoved() {
+        super.markAsRemoved();
+        revision++;
+    }
+
+    public void changePrice(Money price) {
+        if (isRemoved()) {
+            domainError("Can not reprice removed product");
+        }
+        this.price = price;
+        revision++;
+    }
+
+    public long getRevision() {
+        return revision;
+    }
+
     public Money getPrice() {
         return price;
     }
@@ -37,6 +70,14 @@ public class Product extends BaseAggregateRoot {
         return productType;
     }
 
+    public Date getBestBefore() {
+        return bestBefore;
+    }
+
+    public void changeBestBefore(Date bestBefore) {
+        this.bestBefore = bestBefore;
+    }
+
     public ProductData generateSnapshot() {
         return new ProductData(getId(), price, name, productType, new Date());
     }
@@ -1,11 +1,32 @@
 package pl.com.bottega.ecommerce.sales.domain.productscatalog;
 
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
+import pl.com.bottega.ddd.support.domain.BulkLoad;
 import pl.com.bottega.ecommerce.canonicalmodel.publishedlanguage.Id;
 
 public interface ProductRepository {
 	public Product load(Id productId);
 
+	/**
+	 * 
+	 * @return found products by id, in order of ids
+	 */
+	public default Map<Id, Product> loadAll(Collection<Id> productIds) {
+		return BulkLoad.loadOneByOne(productIds, this::load);
+	}
+
 	public List<Product> findProductWhereBestBeforeExpiredIn(int days);
+
+	/**
+	 * Same products as {@link #findProductWhereBestBeforeExpiredIn(int)},
+	 * produced as they are iterated. Stores with an expiry index should
+	 * override; default builds the whole list.
+	 */
+	public default Iterator<Product> iterateProductsWhereBestBeforeExpiredIn(int days) {
+		return findProductWhereBestBeforeExpiredIn(days).iterator();
+	}
 }
@@ -0,0 +1,149 @@
+package pl.com.bottega.ecommerce.sales.domain.reservation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import pl.com.bottega.ecommerce.canonicalmodel.publishedlanguage.Id;
+import pl.com.bottega.ecommerce.sharedkernel.exceptions.OptimisticLockingException.OptimisticLockingException;
+
+/**
+ * Thread safe, in memory reservation store.<br>
+ * Stored reservations are private copies: {@link #load(Id)} returns a new copy
+ * and {@link #save(Reservation)} stores one, so callers never share state with
+ * the store or with each other. Saves are versioned as described in
+ * {@link ReservationRepository#save(Reservation)}.<br>
+ * Loads take no locks and saves only the entry of their reservation.
+ * {@link #snapshot()} sees the store at a single point in time: it copies
+ * optimistically and retries when saves ran meanwhile, holding new saves
+ * back only if it keeps losing to them.
+ */
+public class InMemoryReservationRepository implements ReservationRepository {
+
+	static final int OPTIMISTIC_SNAPSHOT_ATTEMPTS = 8;
+
+	private final ConcurrentMap<Id, Reservation> reservations = new ConcurrentHashMap<Id, Reservation>();
+
+	/**
+	 * Saves begun and ended; equal sums mean no save in progress
+	 */
+	private final LongAdder savesStarted = new LongAdder();
+
+	private final LongAdder savesFinished = new LongAdder();
+
+	/**
+	 * Set by a snapshot holding back new saves, under lock of snapshotGate
+	 */
+	private volatile boolean gateClosed;
+
+	private final Object snapshotGate = new Object();
+
+	@Override
+	public Reservation load(Id reservationId) {
+		Reservation stored = reservations.get(reservationId);
+		return stored == null ? null : stored.copy();
+	}
+
+	/**
+	 * Copies are made on the calling thread, no need to parallelize.
+	 */
+	@Override
+	public Map<Id, Reservation> loadAll(Collection<Id> reservationIds) {
+		Map<Id, Reservation> result = new LinkedHashMap<Id, Reservation>(reservationIds.size() * 2);
+		for (Id id : reservationIds) {
+			Reservation stored = reservations.get(id);
+			if (stored != null)
+				result.put(id, stored.copy());
+		}
+		return result;
+	}
+
+	@Override
+	public void save(Reservation reservation) {
+		final Reservation stored = reservation.copy();
+		final long expectedVersion = reservation.getVersion();
+		stored.assignVersion(expectedVersion + 1);
+
+		enterSave();
+		try {
+			reservations.compute(reservation.getId(), (id, current) -> {
+				long actualVersion = current == null ? 0 : current.getVersion();
+				if (actualVersion != expectedVersion)
+					throw new OptimisticLockingException(id, expectedVersion, actualVersion);
+				return stored;
+			});
+		} finally {
+			savesFinished.increment();
+		}
+		reservation.assignVersion(expectedVersion + 1);
+	}
+
+	/**
+	 * 
+	 * @return copies of all reservations as they were at one moment, for
+	 *         reporting
+	 */
+	public Map<Id, Reservation> snapshot() {
+		List<Reservation> stored = null;
+		for (int attempt = 0; attempt < OPTIMISTIC_SNAPSHOT_ATTEMPTS && stored == null; attempt++) {
+			stored = copyIfQuiet();
+		}
+		if (stored == null) {
+			synchronized (snapshotGate) {
+				gateClosed = true;
+				try {
+					while (stored == null) {
+						Thread.onSpinWait();
+						stored = copyIfQuiet();
+					}
+				} finally {
+					gateClosed = false;
+				}
+			}
+		}
+
+		Map<Id, Reservation> result = new LinkedHashMap<Id, Reservation>(stored.size() * 2);
+		for (Reservation reservation : stored) {
+			result.put(reservation.getId(), reservation.copy());
+		}
+		return Collections.unmodifiableMap(result);
+	}
+
+	/**
+	 * 
+	 * @return stored reservations, null if a save was in progress or started
+	 *         while they were collected
+	 */
+	private List<Reservation> copyIfQuiet() {
+		long finished = savesFinished.sum();
+		if (savesStarted.sum() != finished)
+			return null;
+		List<Reservation> stored = new ArrayList<Reservation>(reservations.values());
+		return savesStarted.sum() == finished ? stored : null;
+	}
+
+	/**
+	 * Counts save as started, first waiting for a snapshot holding saves back.
+	 */
+	private void enterSave() {
+		for (;;) {
+			savesStarted.increment();
+			if (!gateClosed)
+				return;
+			savesFinished.increment();
+			synchronized (snapshotGate) {
+				// passes once the snapshot is done
+			}
+		}
+	}
+
+	public int size() {
+		return reservations.size();
+	}
+}
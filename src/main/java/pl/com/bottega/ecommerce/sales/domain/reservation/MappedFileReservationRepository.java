@@ -0,0 +1,404 @@
+package pl.com.bottega.ecommerce.sales.domain.reservation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import pl.com.bottega.ecommerce.canonicalmodel.publishedlanguage.ClientData;
+import pl.com.bottega.ecommerce.canonicalmodel.publishedlanguage.Id;
+import pl.com.bottega.ecommerce.canonicalmodel.publishedlanguage.IdPool;
+import pl.com.bottega.ecommerce.sales.domain.productscatalog.Product;
+import pl.com.bottega.ecommerce.sales.domain.productscatalog.ProductRepository;
+import pl.com.bottega.ecommerce.sharedkernel.exceptions.OptimisticLockingException.OptimisticLockingException;
+
+/**
+ * Durable reservation store without external database.<br>
+ * Every save appends full state of the reservation to a {@link ReservationLog}
+ * and returns once the record is on disk (group commit, see
+ * {@link ReservationLog#awaitDurable(long)}). In memory index points from
+ * reservation id to its latest record, so a load reads one record. Products
+ * are stored by id and loaded with one
+ * {@link ProductRepository#loadAll(java.util.Collection)} per reservation; a
+ * product missing from the repository fails the load. Client ids of loaded
+ * reservations are interned in an {@link IdPool}, so reservations of one
+ * client share a single id instance.<br>
+ * On start the log is replayed to rebuild the index; a torn record at the end
+ * is ignored, as are records of saves that failed to become durable. Sealed
+ * segments with little live data are compacted by copying their live records
+ * to the end of the log and deleting the segment, either on
+ * {@link #compact()} or periodically after
+ * {@link #startCompaction(long, TimeUnit)}.
+ */
+public class MappedFileReservationRepository implements ReservationRepository {
+
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	/**
+	 * Segments with less live data than this part of their size are compacted
+	 */
+	private static final double COMPACTION_THRESHOLD = 0.5;
+
+	private static final byte FORMAT_VERSION = 1;
+
+	/**
+	 * Reads of a record moved by compaction in the meantime before giving up
+	 */
+	private static final int MAX_READ_ATTEMPTS = 16;
+
+	private final ConcurrentMap<Id, IndexEntry> index = new ConcurrentHashMap<Id, IndexEntry>();
+
+	private final ProductRepository productRepository;
+
+	private final IdPool clientIds = new IdPool();
+
+	private final ReservationLog log;
+
+	private ScheduledExecutorService compactionExecutor;
+
+	public MappedFileReservationRepository(Path directory, ProductRepository productRepository) {
+		this(directory, DEFAULT_SEGMENT_SIZE, productRepository);
+	}
+
+	public MappedFileReservationRepository(Path directory, int segmentSize, ProductRepository productRepository) {
+		this.productRepository = productRepository;
+		this.log = new ReservationLog(directory, segmentSize, (location, payload) -> recover(location, payload));
+	}
+
+	private void recover(long location, byte[] payload) {
+		try {
+			DataInputStream in = open(payload);
+			Id id = new Id(in.readUTF());
+			long version = in.readLong();
+			IndexEntry current = index.get(id);
+			if (current == null || current.version <= version)
+				index.put(id, new IndexEntry(location, version, ReservationLog.recordSize(payload.length)));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public Reservation load(Id reservationId) {
+		IndexEntry previous = null;
+		for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++) {
+			IndexEntry entry = committed(index.get(reservationId));
+			if (entry == null)
+				return null;
+			byte[] payload = log.read(entry.location);
+			if (payload != null)
+				return decode(payload);
+			// segment was just compacted away, index points elsewhere now
+			if (entry == previous)
+				break;
+			previous = entry;
+		}
+		throw new IllegalStateException("Reservation " + reservationId + " refers to a deleted log segment");
+	}
+
+	/**
+	 * Reserves the next version with a {@link PendingEntry}, appends the
+	 * record outside of any index lock and publishes it once it is durable,
+	 * so loads never see state that could be lost in a crash.
+	 */
+	@Override
+	public void save(Reservation reservation) {
+		final Id id = reservation.getId();
+		final long expectedVersion = reservation.getVersion();
+		final long newVersion = expectedVersion + 1;
+		final byte[] payload = encode(reservation, newVersion);
+
+		PendingEntry pending = reserve(id, expectedVersion, newVersion);
+		IndexEntry entry;
+		long location = -1;
+		try {
+			location = log.append(payload);
+			log.awaitDurable(log.endOf(location));
+			entry = new IndexEntry(location, newVersion, ReservationLog.recordSize(payload.length));
+		} catch (RuntimeException | Error e) {
+			// the caller sees the save fail, so it must not come back on replay
+			if (location != -1)
+				log.discard(location);
+			synchronized (pending) {
+				if (pending.committed == null)
+					index.remove(id, pending);
+				else
+					index.replace(id, pending, pending.committed);
+			}
+			throw e;
+		}
+		index.replace(id, pending, entry);
+
+		reservation.assignVersion(newVersion);
+	}
+
+	private PendingEntry reserve(Id id, long expectedVersion, long newVersion) {
+		while (true) {
+			IndexEntry current = index.get(id);
+			long actualVersion = current == null ? 0 : current.version;
+			if (actualVersion != expectedVersion || current instanceof PendingEntry)
+				throw new OptimisticLockingException(id, expectedVersion, actualVersion);
+			PendingEntry pending = new PendingEntry(newVersion, current);
+			if (current == null ? index.putIfAbsent(id, pending) == null : index.replace(id, current, pending))
+				return pending;
+		}
+	}
+
+	/**
+	 * Compacts sealed segments whose live records take less than half of
+	 * their size.
+	 * 
+	 * @return number of compacted segments
+	 */
+	public synchronized int compact() {
+		Map<Integer, Long> liveBytes = new HashMap<Integer, Long>();
+		for (IndexEntry entry : index.values()) {
+			IndexEntry committed = committed(entry);
+			if (committed != null)
+				liveBytes.merge(committed.segment(), (long) committed.size, Long::sum);
+		}
+
+		int compacted = 0;
+		for (int segment : log.sealedSegments()) {
+			if (liveBytes.getOrDefault(segment, 0L) >= log.segmentSize() * COMPACTION_THRESHOLD)
+				continue;
+
+			List<Move> moves = new ArrayList<Move>();
+			log.scanSegment(segment, (location, payload) -> {
+				Id id = readId(payload);
+				IndexEntry current = committed(index.get(id));
+				if (current != null && current.location == location)
+					moves.add(new Move(id, current, new IndexEntry(log.append(payload), current.version,
+							current.size)));
+			});
+			log.awaitDurable(log.end());
+
+			boolean repointed = true;
+			for (Move move : moves)
+				repointed &= repoint(move);
+			if (repointed) {
+				log.deleteSegment(segment);
+				compacted++;
+			}
+		}
+		return compacted;
+	}
+
+	/**
+	 * 
+	 * @return false if the index still refers to the moved record's old
+	 *         location
+	 */
+	private boolean repoint(Move move) {
+		while (true) {
+			IndexEntry current = index.get(move.id);
+			if (current == move.from) {
+				if (index.replace(move.id, move.from, move.to))
+					return true;
+			} else if (current instanceof PendingEntry) {
+				PendingEntry pending = (PendingEntry) current;
+				synchronized (pending) {
+					if (index.get(move.id) != pending)
+						continue;
+					if (pending.committed == move.from)
+						pending.committed = move.to;
+					return true;
+				}
+			} else {
+				// superseded by a later save
+				return true;
+			}
+		}
+	}
+
+	private static IndexEntry committed(IndexEntry entry) {
+		return entry instanceof PendingEntry ? ((PendingEntry) entry).committed : entry;
+	}
+
+	public synchronized void startCompaction(long period, TimeUnit unit) {
+		if (compactionExecutor != null)
+			return;
+		compactionExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "reservation-log-compaction");
+			thread.setDaemon(true);
+			return thread;
+		});
+		compactionExecutor.scheduleWithFixedDelay(this::compact, period, period, unit);
+	}
+
+	public synchronized void close() {
+		if (compactionExecutor != null) {
+			compactionExecutor.shutdownNow();
+			compactionExecutor = null;
+		}
+		log.close();
+	}
+
+	private byte[] encode(Reservation reservation, long version) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeByte(FORMAT_VERSION);
+			out.writeUTF(reservation.getId().toString());
+			out.writeLong(version);
+			out.writeByte(reservation.getStatus().ordinal());
+			out.writeBoolean(reservation.isRemoved());
+			ClientData clientData = reservation.getClientData();
+			out.writeBoolean(clientData != null);
+			if (clientData != null) {
+				writeNullable(out, clientData.getAggregateId() == null ? null : clientData.getAggregateId().toString());
+				writeNullable(out, clientData.getName());
+			}
+			Date createDate = reservation.getCreateDate();
+			out.writeBoolean(createDate != null);
+			if (createDate != null)
+				out.writeLong(createDate.getTime());
+			List<ReservationItem> items = reservation.getItems();
+			out.writeInt(items.size());
+			for (ReservationItem item : items) {
+				out.writeUTF(item.getProduct().getId().toString());
+				out.writeInt(item.getQuantity());
+			}
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private Reservation decode(byte[] payload) {
+		try {
+			DataInputStream in = open(payload);
+			Id id = new Id(in.readUTF());
+			long version = in.readLong();
+			Reservation.ReservationStatus status = Reservation.ReservationStatus.values()[in.readByte()];
+			boolean removed = in.readBoolean();
+			ClientData clientData = null;
+			if (in.readBoolean()) {
+				String clientId = readNullable(in);
+				clientData = new ClientData(clientId == null ? null : clientIds.intern(new Id(clientId)),
+						readNullable(in));
+			}
+			Date createDate = in.readBoolean() ? new Date(in.readLong()) : null;
+
+			Reservation reservation = new Reservation(id, status, clientData, createDate);
+			int items = in.readInt();
+			List<Id> productIds = new ArrayList<Id>(items);
+			int[] quantities = new int[items];
+			for (int i = 0; i < items; i++) {
+				productIds.add(new Id(in.readUTF()));
+				quantities[i] = in.readInt();
+			}
+			Map<Id, Product> products = items == 0 ? Collections.<Id, Product> emptyMap() : productRepository
+					.loadAll(productIds);
+			for (int i = 0; i < items; i++) {
+				Product product = products.get(productIds.get(i));
+				if (product == null)
+					throw new IllegalStateException("Product " + productIds.get(i) + " of reservation " + id
+							+ " not found");
+				reservation.restoreItem(product, quantities[i]);
+			}
+			reservation.assignVersion(version);
+			if (removed)
+				reservation.markAsRemoved();
+			return reservation;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static Id readId(byte[] payload) {
+		try {
+			return new Id(open(payload).readUTF());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * 
+	 * @return stream positioned after format version, which is checked
+	 */
+	private static DataInputStream open(byte[] payload) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+		byte formatVersion = in.readByte();
+		if (formatVersion != FORMAT_VERSION)
+			throw new IllegalStateException("Unsupported reservation record format " + formatVersion);
+		return in;
+	}
+
+	private static void writeNullable(DataOutputStream out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null)
+			out.writeUTF(value);
+	}
+
+	private static String readNullable(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	private static class IndexEntry {
+		final long location;
+
+		final long version;
+
+		/**
+		 * Bytes taken in the log, header included
+		 */
+		final int size;
+
+		IndexEntry(long location, long version, int size) {
+			this.location = location;
+			this.version = version;
+			this.size = size;
+		}
+
+		int segment() {
+			return (int) (location >>> 32);
+		}
+	}
+
+	/**
+	 * Version reserved by a save whose record is not durable yet. Loads see
+	 * the committed entry it replaced.
+	 */
+	private static class PendingEntry extends IndexEntry {
+		/**
+		 * Null for a reservation never saved before. Guarded by this, as
+		 * compaction may move it while the save is in progress
+		 */
+		volatile IndexEntry committed;
+
+		PendingEntry(long version, IndexEntry committed) {
+			super(-1, version, 0);
+			this.committed = committed;
+		}
+	}
+
+	private static class Move {
+		final Id id;
+
+		final IndexEntry from;
+
+		final IndexEntry to;
+
+		Move(Id id, IndexEntry from, IndexEntry to) {
+			this.id = id;
+			this.from = from;
+			this.to = to;
+		}
+	}
+}
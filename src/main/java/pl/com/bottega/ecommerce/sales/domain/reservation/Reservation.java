@@ -1,8 +1,11 @@
 package pl.com.bottega.ecommerce.sales.domain.reservation;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import pl.com.bottega.ddd.support.domain.BaseAggregateRoot;
 import pl.com.bottega.ecommerce.canonicalmodel.publishedlanguage.ClientData;
@@ -13,6 +16,7 @@ import pl.com.bottega.ecommerce.sales.domain.offer.Offer;
 import pl.com.bottega.ecommerce.sales.domain.offer.OfferItem;
 import pl.com.bottega.ecommerce.sales.domain.productscatalog.Product;
 import pl.com.bottega.ecommerce.sharedkernel.Money;
+import pl.com.bottega.ecommerce.sharedkernel.MoneyAccumulator;
 
 public class Reservation extends BaseAggregateRoot{
 	public enum ReservationStatus {
@@ -25,6 +29,15 @@ public class Reservation extends BaseAggregateRoot{
 	
 	private List<ReservationItem> items;
 
+	/**
+	 * Index of {@link #items} by product id, built on first use
+	 */
+	private transient Map<Id, ReservationItem> itemsByProductId;
+
+	private transient Offer lastOffer;
+
+	private transient DiscountPolicy lastDiscountPolicy;
+
 	
 	private ClientData clientData;
 
@@ -43,71 +56,174 @@ public class Reservation extends BaseAggregateRoot{
 		this.items = new ArrayList<ReservationItem>();
 	}
 
+	/**
+	 * 
+	 * @return independent copy of this reservation with its own items,
+	 *         referring to the same products
+	 */
+	Reservation copy() {
+		Reservation copy = new Reservation(id, status, clientData, createDate);
+		for (ReservationItem item : items) {
+			copy.restoreItem(item.getProduct(), item.getQuantity());
+		}
+		copy.assignVersion(getVersion());
+		if (isRemoved())
+			copy.markAsRemoved();
+		return copy;
+	}
+
+	/**
+	 * Appends item without domain checks, for repositories rebuilding stored
+	 * state
+	 */
+	void restoreItem(Product product, int quantity) {
+		addNew(product, quantity);
+	}
+
+	List<ReservationItem> getItems() {
+		return Collections.unmodifiableList(items);
+	}
+
 	public void add(Product product, int quantity) {
 		if (isClosed())
 			domainError("Reservation already closed");
 		if (!product.isAvailable())
 			domainError("Product is no longer available");
 
-		if (contains(product)) {
-			increase(product, quantity);
+		ReservationItem item = findItem(product);
+		if (item != null) {
+			item.changeQuantityBy(quantity);
 		} else {
 			addNew(product, quantity);
 		}
 	}
 
+	/**
+	 * Adds many products at once. All products and resulting quantities are
+	 * checked before any of them is added, so either all are added or none.
+	 * 
+	 * @param quantities
+	 *            products with quantities, added in iteration order
+	 */
+	public void addAll(Map<Product, Integer> quantities) {
+		if (isClosed())
+			domainError("Reservation already closed");
+		Map<Id, Integer> resulting = new HashMap<Id, Integer>(quantities.size() * 2);
+		for (Map.Entry<Product, Integer> entry : quantities.entrySet()) {
+			Product product = entry.getKey();
+			if (!product.isAvailable())
+				domainError("Product is no longer available");
+
+			Integer current = resulting.get(product.getId());
+			if (current == null) {
+				ReservationItem item = findItem(product);
+				current = item != null ? item.getQuantity() : null;
+			}
+			if (current == null) {
+				resulting.put(product.getId(), entry.getValue());
+			} else {
+				long changed = (long) current + entry.getValue();
+				if (changed <= 0 || changed > Integer.MAX_VALUE)
+					domainError("Quantity of product " + product.getId() + " would change to " + changed);
+				resulting.put(product.getId(), (int) changed);
+			}
+		}
+
+		for (Map.Entry<Product, Integer> entry : quantities.entrySet()) {
+			ReservationItem item = findItem(entry.getKey());
+			if (item != null) {
+				item.changeQuantityBy(entry.getValue());
+			} else {
+				addNew(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
 	/**
 	 * Sample function closured by policy </br> Higher order function closured
 	 * by policy function</br> </br> Function loads current prices, and prepares
-	 * offer according to the current availability and given discount
+	 * offer according to the current availability and given discount</br>
+	 * </br>
+	 * Offer items are remembered per reservation item and recomputed only when
+	 * quantity, product price or availability changed. Called again with the
+	 * same policy and no changes it returns the previous offer, which is why
+	 * returned offers are unmodifiable. Policy is assumed to depend only on its
+	 * arguments.
 	 * 
 	 * @param discountPolicy
 	 * @return
 	 */
 	public Offer calculateOffer(DiscountPolicy discountPolicy) {
+		if (discountPolicy != lastDiscountPolicy) {
+			for (ReservationItem item : items) {
+				item.setOfferItem(null);
+			}
+			lastOffer = null;
+			lastDiscountPolicy = discountPolicy;
+		}
+
+		boolean changed = lastOffer == null;
+		for (ReservationItem item : items) {
+			if (item.getOfferItem() == null) {
+				item.setOfferItem(createOfferItem(item, discountPolicy));
+				changed = true;
+			}
+		}
+		if (!changed)
+			return lastOffer;
+
 		List<OfferItem> availabeItems = new ArrayList<OfferItem>();
 		List<OfferItem> unavailableItems = new ArrayList<OfferItem>();
 
 		for (ReservationItem item : items) {
 			if (item.getProduct().isAvailable()) {
-				Discount discount = discountPolicy.applyDiscount(item
-						.getProduct(), item.getQuantity(), item.getProduct()
-						.getPrice());
-				OfferItem offerItem = new OfferItem(item.getProduct()
-						.generateSnapshot(), item.getQuantity(), discount);
-
-				availabeItems.add(offerItem);
+				availabeItems.add(item.getOfferItem());
 			} else {
-				OfferItem offerItem = new OfferItem(item.getProduct()
-						.generateSnapshot(), item.getQuantity());
-
-				unavailableItems.add(offerItem);
+				unavailableItems.add(item.getOfferItem());
 			}
 		}
 
-		return new Offer(availabeItems, unavailableItems);
+		lastOffer = new Offer(Collections.unmodifiableList(availabeItems),
+				Collections.unmodifiableList(unavailableItems));
+		return lastOffer;
+	}
+
+	private OfferItem createOfferItem(ReservationItem item,
+			DiscountPolicy discountPolicy) {
+		if (item.getProduct().isAvailable()) {
+			Discount discount = discountPolicy.applyDiscount(item
+					.getProduct(), item.getQuantity(), item.getProduct()
+					.getPrice());
+			return new OfferItem(item.getProduct().generateSnapshot(),
+					item.getQuantity(), discount);
+		} else {
+			return new OfferItem(item.getProduct().generateSnapshot(),
+					item.getQuantity());
+		}
 	}
 
 	private void addNew(Product product, int quantity) {
 		ReservationItem item = new ReservationItem(product, quantity);
 		items.add(item);
+		itemsByProductId().put(product.getId(), item);
 	}
 
-	private void increase(Product product, int quantity) {
-		for (ReservationItem item : items) {
-			if (item.getProduct().equals(product)) {
-				item.changeQuantityBy(quantity);
-				break;
+	private ReservationItem findItem(Product product) {
+		return itemsByProductId().get(product.getId());
+	}
+
+	private Map<Id, ReservationItem> itemsByProductId() {
+		if (itemsByProductId == null) {
+			itemsByProductId = new HashMap<Id, ReservationItem>(Math.max(16, items.size() * 2));
+			for (ReservationItem item : items) {
+				itemsByProductId.putIfAbsent(item.getProduct().getId(), item);
 			}
 		}
+		return itemsByProductId;
 	}
 
 	public boolean contains(Product product) {
-		for (ReservationItem item : items) {
-			if (item.getProduct().equals(product))
-				return true;
-		}
-		return false;
+		return findItem(product) != null;
 	}
 
 	public boolean isClosed() {
@@ -133,6 +249,18 @@ public class Reservation extends BaseAggregateRoot{
 		return result;
 	}
 
+	/**
+	 * 
+	 * @return sum of {@link ReservedProduct#getTotalCost()} of all reserved products
+	 */
+	public Money calculateTotalCost() {
+		MoneyAccumulator total = new MoneyAccumulator();
+		for (ReservationItem item : items) {
+			total.addMultiplied(item.getProduct().getPrice(), item.getQuantity());
+		}
+		return total.toMoney();
+	}
+
 	private Money calculateItemCost(ReservationItem item) {
 		return item.getProduct().getPrice().multiplyBy(item.getQuantity());
 	}
@@ -1,6 +1,7 @@
 package pl.com.bottega.ecommerce.sales.domain.reservation;
 
 import pl.com.bottega.ddd.support.domain.BaseEntity;
+import pl.com.bottega.ecommerce.sales.domain.offer.OfferItem;
 import pl.com.bottega.ecommerce.sales.domain.productscatalog.Product;
 import pl.com.bottega.ecommerce.sharedkernel.exceptions.DomainOperationException.DomainOperationException;
 
@@ -9,6 +10,10 @@ public class ReservationItem extends BaseEntity{
 	
 	private int quantity;
 
+	private transient OfferItem offerItem;
+
+	private transient long offerItemRevision;
+
 	@SuppressWarnings("unused")
 	private ReservationItem(){}
 	
@@ -22,6 +27,22 @@ public class ReservationItem extends BaseEntity{
 		if (changed <= 0)
 			throw new DomainOperationException(null, "change below 1");
 		this.quantity = changed;
+		this.offerItem = null;
+	}
+
+	/**
+	 * 
+	 * @return offer item computed for current quantity and product revision, null if there is none
+	 */
+	OfferItem getOfferItem() {
+		if (offerItem != null && offerItemRevision != product.getRevision())
+			offerItem = null;
+		return offerItem;
+	}
+
+	void setOfferItem(OfferItem offerItem) {
+		this.offerItem = offerItem;
+		this.offerItemRevision = product.getRevision();
 	}
 	
 	public Product getProduct() {
@@ -0,0 +1,390 @@
+package pl.com.bottega.ecommerce.sales.domain.reservation;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append only log of records kept in memory mapped segment files of fixed
+ * size.<br>
+ * Record layout: payload length (int), CRC32 of payload (int), payload. Unused
+ * space of a segment is zero, so a zero length marks its end. A negative
+ * length marks a {@link #discard(long) discarded} record, skipped on
+ * recovery.<br>
+ * Recovery stops at the first torn record and zeroes the active segment from
+ * there on, so records appended later are not followed by leftovers of the
+ * torn one.<br>
+ * Location of a record is segment number in high and offset in low 32 bits,
+ * so locations grow with every append.<br>
+ * Durability uses group commit: whoever waits for a record to be durable and
+ * finds no flush in progress forces the active segment for everything
+ * appended so far; others wait for that flush instead of forcing themselves.
+ */
+class ReservationLog {
+
+	interface RecordVisitor {
+		void visit(long location, byte[] payload);
+	}
+
+	private static final String SUFFIX = ".log";
+
+	private static final int HEADER_SIZE = 8;
+
+	private final Path directory;
+
+	private final int segmentSize;
+
+	private final NavigableMap<Integer, Segment> segments = new ConcurrentSkipListMap<Integer, Segment>();
+
+	private final Object appendMonitor = new Object();
+
+	private Segment active;
+
+	private final ReentrantLock flushLock = new ReentrantLock();
+
+	private final Condition flushed = flushLock.newCondition();
+
+	private boolean flushing;
+
+	private long durableEnd;
+
+	/**
+	 * Opens log in directory, calling visitor for every valid record in
+	 * order of appending. Appending continues after the last valid record.
+	 */
+	ReservationLog(Path directory, int segmentSize, RecordVisitor recovery) {
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		try {
+			Files.createDirectories(directory);
+			for (Integer number : existingSegments()) {
+				Segment segment = new Segment(number, openChannel(number));
+				segment.limit = scan(segment, recovery);
+				segments.put(number, segment);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Can not open reservation log in " + directory, e);
+		}
+		active = segments.isEmpty() ? createSegment(0) : segments.lastEntry().getValue();
+		zeroTail(active);
+		durableEnd = location(active.number, active.limit);
+	}
+
+	/**
+	 * 
+	 * @return location of appended record
+	 */
+	long append(byte[] payload) {
+		int recordSize = recordSize(payload.length);
+		if (recordSize > segmentSize)
+			throw new IllegalArgumentException("Record of " + payload.length + " bytes does not fit in segment");
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+
+		synchronized (appendMonitor) {
+			if (active.limit + recordSize > segmentSize)
+				roll();
+			int offset = active.limit;
+			MappedByteBuffer buffer = active.buffer;
+			buffer.putInt(offset + 4, (int) crc.getValue());
+			ByteBuffer target = buffer.duplicate();
+			target.position(offset + HEADER_SIZE);
+			target.put(payload);
+			// length goes last, a torn record then reads as end of segment
+			buffer.putInt(offset, payload.length);
+			active.limit = offset + recordSize;
+			return location(active.number, offset);
+		}
+	}
+
+	/**
+	 * Marks record as discarded, e.g. when it could not be made durable, so
+	 * it is not replayed on recovery. The mark reaches disk with the next
+	 * flush.
+	 */
+	void discard(long location) {
+		Segment segment = segment(location);
+		int offset = offset(location);
+		int length = segment.buffer.getInt(offset);
+		if (length > 0)
+			segment.buffer.putInt(offset, -length);
+	}
+
+	/**
+	 * 
+	 * @return bytes taken by record with payload of given length
+	 */
+	static int recordSize(int payloadLength) {
+		return HEADER_SIZE + payloadLength;
+	}
+
+	/**
+	 * 
+	 * @return location right after record at given location
+	 */
+	long endOf(long location) {
+		Segment segment = segment(location);
+		return location + recordSize(Math.abs(segment.buffer.getInt(offset(location))));
+	}
+
+	/**
+	 * 
+	 * @return payload of record at given location, null if its segment was
+	 *         deleted
+	 */
+	byte[] read(long location) {
+		Segment segment = segments.get((int) (location >>> 32));
+		if (segment == null)
+			return null;
+		int offset = offset(location);
+		return payload(segment.buffer, offset, segment.buffer.getInt(offset));
+	}
+
+	/**
+	 * 
+	 * @return location right after the last appended record
+	 */
+	long end() {
+		synchronized (appendMonitor) {
+			return location(active.number, active.limit);
+		}
+	}
+
+	/**
+	 * Blocks until everything up to given location is forced to disk.
+	 */
+	void awaitDurable(long end) {
+		flushLock.lock();
+		try {
+			while (durableEnd < end) {
+				if (flushing) {
+					flushed.awaitUninterruptibly();
+					continue;
+				}
+				flushing = true;
+				long forcedEnd = -1;
+				flushLock.unlock();
+				try {
+					forcedEnd = forceActive();
+				} finally {
+					flushLock.lock();
+					flushing = false;
+					durableEnd = Math.max(durableEnd, forcedEnd);
+					flushed.signalAll();
+				}
+			}
+		} finally {
+			flushLock.unlock();
+		}
+	}
+
+	private long forceActive() {
+		Segment segment;
+		long end;
+		synchronized (appendMonitor) {
+			segment = active;
+			end = location(segment.number, segment.limit);
+		}
+		force(segment.buffer);
+		return end;
+	}
+
+	/**
+	 * Forces buffer to disk; tests override it to simulate failing disks.
+	 */
+	void force(MappedByteBuffer buffer) {
+		buffer.force();
+	}
+
+	/**
+	 * 
+	 * @return numbers of segments other than the one being appended to
+	 */
+	List<Integer> sealedSegments() {
+		synchronized (appendMonitor) {
+			return new ArrayList<Integer>(segments.headMap(active.number, false).keySet());
+		}
+	}
+
+	void scanSegment(int number, RecordVisitor visitor) {
+		Segment segment = segments.get(number);
+		if (segment != null)
+			scan(segment, visitor);
+	}
+
+	int segmentSize() {
+		return segmentSize;
+	}
+
+	/**
+	 * Deletes sealed segment. Buffers already handed out stay readable until
+	 * they are garbage collected.
+	 */
+	void deleteSegment(int number) {
+		Segment segment;
+		synchronized (appendMonitor) {
+			if (number == active.number)
+				throw new IllegalArgumentException("Can not delete active segment");
+			segment = segments.remove(number);
+		}
+		if (segment == null)
+			return;
+		try {
+			segment.channel.close();
+			Files.deleteIfExists(path(number));
+		} catch (IOException e) {
+			throw new UncheckedIOException("Can not delete segment " + number, e);
+		}
+	}
+
+	void close() {
+		synchronized (appendMonitor) {
+			for (Segment segment : segments.values()) {
+				segment.buffer.force();
+				try {
+					segment.channel.close();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		}
+	}
+
+	private void roll() {
+		active.buffer.force();
+		active = createSegment(active.number + 1);
+	}
+
+	private Segment createSegment(int number) {
+		try {
+			Segment segment = new Segment(number, openChannel(number));
+			segments.put(number, segment);
+			return segment;
+		} catch (IOException e) {
+			throw new UncheckedIOException("Can not create segment " + number + " in " + directory, e);
+		}
+	}
+
+	private Segment segment(long location) {
+		Segment segment = segments.get((int) (location >>> 32));
+		if (segment == null)
+			throw new IllegalStateException("Segment of location " + location + " no longer exists");
+		return segment;
+	}
+
+	private int scan(Segment segment, RecordVisitor visitor) {
+		MappedByteBuffer buffer = segment.buffer;
+		int offset = 0;
+		while (offset + HEADER_SIZE <= segmentSize) {
+			int header = buffer.getInt(offset);
+			// Math.abs of MIN_VALUE stays negative
+			int length = Math.abs(header);
+			if (length <= 0 || offset + recordSize(length) > segmentSize)
+				break;
+			byte[] payload = payload(buffer, offset, length);
+			CRC32 crc = new CRC32();
+			crc.update(payload);
+			if ((int) crc.getValue() != buffer.getInt(offset + 4))
+				break;
+			if (header > 0)
+				visitor.visit(location(segment.number, offset), payload);
+			offset += recordSize(length);
+		}
+		return offset;
+	}
+
+	/**
+	 * Zeroes everything after the last valid record of segment, left there by
+	 * a torn append.
+	 */
+	private void zeroTail(Segment segment) {
+		MappedByteBuffer buffer = segment.buffer;
+		boolean zeroed = false;
+		int offset = segment.limit;
+		for (; offset + 8 <= segmentSize; offset += 8) {
+			if (buffer.getLong(offset) != 0) {
+				buffer.putLong(offset, 0);
+				zeroed = true;
+			}
+		}
+		for (; offset < segmentSize; offset++) {
+			if (buffer.get(offset) != 0) {
+				buffer.put(offset, (byte) 0);
+				zeroed = true;
+			}
+		}
+		if (zeroed)
+			force(buffer);
+	}
+
+	private static byte[] payload(MappedByteBuffer buffer, int offset, int length) {
+		byte[] payload = new byte[length];
+		ByteBuffer source = buffer.duplicate();
+		source.position(offset + HEADER_SIZE);
+		source.get(payload);
+		return payload;
+	}
+
+	private List<Integer> existingSegments() throws IOException {
+		List<Integer> numbers = new ArrayList<Integer>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				try {
+					numbers.add(Integer.parseInt(name.substring(0, name.length() - SUFFIX.length())));
+				} catch (NumberFormatException e) {
+					// not a segment
+				}
+			}
+		}
+		Collections.sort(numbers);
+		return numbers;
+	}
+
+	private FileChannel openChannel(int number) throws IOException {
+		return FileChannel.open(path(number), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+	}
+
+	private Path path(int number) {
+		return directory.resolve(String.format("%010d", number) + SUFFIX);
+	}
+
+	private static long location(int segment, int offset) {
+		return ((long) segment << 32) | offset;
+	}
+
+	private static int offset(long location) {
+		return (int) location;
+	}
+
+	private class Segment {
+		final int number;
+
+		final FileChannel channel;
+
+		final MappedByteBuffer buffer;
+
+		int limit;
+
+		Segment(int number, FileChannel channel) throws IOException {
+			this.number = number;
+			this.channel = channel;
+			this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+		}
+	}
+}
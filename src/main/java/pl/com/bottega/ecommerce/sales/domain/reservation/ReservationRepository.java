@@ -1,9 +1,29 @@
 package pl.com.bottega.ecommerce.sales.domain.reservation;
 
+import java.util.Collection;
+import java.util.Map;
+
+import pl.com.bottega.ddd.support.domain.BulkLoad;
 import pl.com.bottega.ecommerce.canonicalmodel.publishedlanguage.Id;
+import pl.com.bottega.ecommerce.sharedkernel.exceptions.OptimisticLockingException.OptimisticLockingException;
 
 public interface ReservationRepository {
+	/**
+	 * Compare and set: stores reservation only if stored version is still
+	 * {@link Reservation#getVersion()}, then assigns the next version to it.
+	 * 
+	 * @throws OptimisticLockingException
+	 *             if reservation was saved by someone else since it was loaded
+	 */
 	void save(Reservation reservation);
 
 	Reservation load(Id reservationId);
+
+	/**
+	 * 
+	 * @return found reservations by id, in order of ids
+	 */
+	default Map<Id, Reservation> loadAll(Collection<Id> reservationIds) {
+		return BulkLoad.loadOneByOne(reservationIds, this::load);
+	}
 }
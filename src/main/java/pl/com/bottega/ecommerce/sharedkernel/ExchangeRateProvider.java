@@ -0,0 +1,25 @@
+/*
+ * Copyright 2011-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package pl.com.bottega.ecommerce.sharedkernel;
+
+/**
+ * Source of exchange rates. Callers should take one {@link ExchangeRates} snapshot per unit of work (an invoice, an
+ * offer) and use it for all conversions, so that every line is converted with the same rates.
+ */
+public interface ExchangeRateProvider {
+
+    /**
+     * @return current, immutable snapshot of rates
+     */
+    public ExchangeRates getCurrentRates();
+}
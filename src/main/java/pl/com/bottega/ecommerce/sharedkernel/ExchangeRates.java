@@ -0,0 +1,137 @@
+/*
+ * Copyright 2011-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package pl.com.bottega.ecommerce.sharedkernel;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Currency;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable, versioned set of exchange rates. Rates between every pair of known currencies are computed once, when the
+ * snapshot is created, so a conversion is a table lookup and a multiplication.
+ */
+public class ExchangeRates {
+
+    private final long version;
+
+    private final Currency baseCurrency;
+
+    private final Map<Currency, Integer> indexes;
+
+    private final BigDecimal[][] rates;
+
+    /**
+     * @param ratesToBase amount of given currency that equals one unit of base currency
+     */
+    public ExchangeRates(long version, Currency baseCurrency, Map<Currency, BigDecimal> ratesToBase) {
+        this.version = version;
+        this.baseCurrency = baseCurrency;
+
+        List<Currency> currencies = new ArrayList<Currency>(ratesToBase.keySet());
+        if (!ratesToBase.containsKey(baseCurrency)) {
+            currencies.add(baseCurrency);
+        }
+        this.indexes = new IdentityHashMap<Currency, Integer>(currencies.size());
+        BigDecimal[] toBase = new BigDecimal[currencies.size()];
+        for (int i = 0; i < currencies.size(); i++) {
+            Currency currency = currencies.get(i);
+            BigDecimal rate = currency == baseCurrency ? BigDecimal.ONE : ratesToBase.get(currency);
+            if (rate == null || rate.signum() <= 0) {
+                throw new IllegalArgumentException("Invalid exchange rate for " + currency + ": " + rate);
+            }
+            indexes.put(currency, i);
+            toBase[i] = rate;
+        }
+
+        this.rates = new BigDecimal[toBase.length][toBase.length];
+        for (int from = 0; from < toBase.length; from++) {
+            for (int to = 0; to < toBase.length; to++) {
+                rates[from][to] = from == to ? BigDecimal.ONE : toBase[to].divide(toBase[from],
+                        MathContext.DECIMAL128);
+            }
+        }
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public Currency getBaseCurrency() {
+        return baseCurrency;
+    }
+
+    public Set<Currency> getCurrencies() {
+        return Collections.unmodifiableSet(indexes.keySet());
+    }
+
+    /**
+     * @return amount of <code>to</code> currency that equals one unit of <code>from</code> currency
+     */
+    public BigDecimal getRate(Currency from, Currency to) {
+        return rates[indexOf(from)][indexOf(to)];
+    }
+
+    /**
+     * Result is rounded the same way as any other {@link Money}. Zero and amounts already in target currency are
+     * returned without conversion.
+     */
+    public Money convert(Money money, Currency target) {
+        Currency source = money.currency();
+        if (source == target) {
+            return money;
+        }
+        if (money.isZero()) {
+            return Money.ofMinorUnits(0, target);
+        }
+        return new Money(money.toBigDecimal().multiply(getRate(source, target)), target);
+    }
+
+    /**
+     * Converts all amounts to target currency. Element at given index of result corresponds to the same index of
+     * <code>amounts</code>.
+     */
+    public Money[] convertAll(Money[] amounts, Currency target) {
+        Money[] result = new Money[amounts.length];
+        for (int i = 0; i < amounts.length; i++) {
+            result[i] = convert(amounts[i], target);
+        }
+        return result;
+    }
+
+    /**
+     * Sum of amounts in target currency. Every amount is converted and rounded separately, as it would be on a
+     * printed document, then added.
+     */
+    public Money total(Iterable<Money> amounts, Currency target) {
+        MoneyAccumulator total = new MoneyAccumulator(Money.ofMinorUnits(0, target));
+        for (Money amount : amounts) {
+            total.add(convert(amount, target));
+        }
+        return total.toMoney();
+    }
+
+    private int indexOf(Currency currency) {
+        Integer index = indexes.get(currency);
+        if (index == null) {
+            throw new IllegalArgumentException("No exchange rate for " + currency);
+        }
+        return index;
+    }
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2011-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package pl.com.bottega.ecommerce.sharedkernel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Reads rates from a properties file, e.g.:
+ * 
+ * <pre>
+ * version=3
+ * base=EUR
+ * PLN=4.3125
+ * USD=1.0850
+ * </pre>
+ * 
+ * Every other key is a currency code with the amount of that currency equal to one unit of base currency.
+ * {@link #reload()} swaps in the new snapshot atomically; a snapshot is replaced only by one with a higher version.
+ * A file with a malformed line is rejected as a whole, keeping the current snapshot.
+ */
+public class FileExchangeRateProvider implements ExchangeRateProvider {
+
+    private static final String VERSION_KEY = "version";
+
+    private static final String BASE_KEY = "base";
+
+    private final Path file;
+
+    private final AtomicReference<ExchangeRates> current = new AtomicReference<ExchangeRates>();
+
+    public FileExchangeRateProvider(Path file) {
+        this.file = file;
+        reload();
+    }
+
+    @Override
+    public ExchangeRates getCurrentRates() {
+        return current.get();
+    }
+
+    /**
+     * @return true if rates from file were newer than current ones and replaced them
+     */
+    public boolean reload() {
+        ExchangeRates loaded = read();
+        while (true) {
+            ExchangeRates previous = current.get();
+            if (previous != null && previous.getVersion() >= loaded.getVersion()) {
+                return false;
+            }
+            if (current.compareAndSet(previous, loaded)) {
+                return true;
+            }
+        }
+    }
+
+    private ExchangeRates read() {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can not read exchange rates from " + file, e);
+        }
+
+        String version = properties.getProperty(VERSION_KEY);
+        String base = properties.getProperty(BASE_KEY);
+        if (version == null || base == null) {
+            throw new IllegalArgumentException("Exchange rates file " + file + " must define " + VERSION_KEY
+                    + " and " + BASE_KEY);
+        }
+
+        Map<Currency, BigDecimal> rates = new HashMap<Currency, BigDecimal>();
+        for (String key : properties.stringPropertyNames()) {
+            if (!key.equals(VERSION_KEY) && !key.equals(BASE_KEY)) {
+                String value = properties.getProperty(key);
+                try {
+                    rates.put(Currency.getInstance(key), new BigDecimal(value.trim()));
+                } catch (IllegalArgumentException e) {
+                    throw malformed(key, value, e);
+                }
+            }
+        }
+        long parsedVersion;
+        Currency baseCurrency;
+        try {
+            parsedVersion = Long.parseLong(version.trim());
+        } catch (NumberFormatException e) {
+            throw malformed(VERSION_KEY, version, e);
+        }
+        try {
+            baseCurrency = Currency.getInstance(base.trim());
+        } catch (IllegalArgumentException e) {
+            throw malformed(BASE_KEY, base, e);
+        }
+        return new ExchangeRates(parsedVersion, baseCurrency, rates);
+    }
+
+    private IllegalArgumentException malformed(String key, String value, IllegalArgumentException cause) {
+        return new IllegalArgumentException("Malformed line " + key + "=" + value + " in exchange rates file " + file,
+                cause);
+    }
+
+}
@@ -13,28 +13,75 @@
 package pl.com.bottega.ecommerce.sharedkernel;
 
 import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.math.RoundingMode;
 import java.util.Currency;
 
+/**
+ * {@link #denomination} is the stored form of the amount, as it always was, and the only one {@link #equals(Object)}
+ * and {@link #hashCode()} look at. Arithmetic and comparisons run on a long number of minor units (scale 2) derived
+ * from it, falling back to BigDecimal for amounts that do not fit in a long; results are rounded HALF_EVEN to scale 2
+ * exactly as before. Instances restored by a persistence layer through {@link #Money()} derive the minor units on
+ * first use.
+ */
 public class Money {
 
     public static final Currency DEFAULT_CURRENCY = Currency.getInstance("EUR");
 
     public static final Money ZERO = new Money(BigDecimal.ZERO);
 
+    static final int SCALE = 2;
+
+    private static final byte UNKNOWN = 0;
+
+    private static final byte COMPACT = 1;
+
+    private static final byte DECIMAL = 2;
+
     private BigDecimal denomination;
 
     private String currencyCode;
 
+    /**
+     * Amount in minor units, valid when {@link #form} is {@link #COMPACT}.
+     */
+    private transient long units;
+
+    /**
+     * Whether {@link #units} holds the amount; {@link #UNKNOWN} until derived from {@link #denomination}. Written after
+     * units, so a thread reading it also sees them.
+     */
+    private transient volatile byte form;
+
+    /**
+     * Resolved from {@link #currencyCode} at most once. Currency instances are unique per code, so they can be
+     * compared by identity.
+     */
+    private transient Currency currency;
+
+    /**
+     * Cached result of {@link #toString()}, with the format it was made by.
+     */
+    private transient FormattedText text;
+
     protected Money() {}
 
     public Money(BigDecimal denomination, Currency currency) {
-        this(denomination, currency.getCurrencyCode());
+        this(denomination, currency.getCurrencyCode(), currency);
     }
 
-    private Money(BigDecimal denomination, String currencyCode) {
-        this.denomination = denomination.setScale(2, RoundingMode.HALF_EVEN);
+    private Money(BigDecimal denomination, String currencyCode, Currency currency) {
+        this.denomination = denomination.setScale(SCALE, RoundingMode.HALF_EVEN);
         this.currencyCode = currencyCode;
+        this.currency = currency;
+    }
+
+    Money(Currency currency, long units) {
+        this.denomination = BigDecimal.valueOf(units, SCALE);
+        this.currencyCode = currency.getCurrencyCode();
+        this.currency = currency;
+        this.units = units;
+        this.form = COMPACT;
     }
 
     public Money(BigDecimal denomination) {
@@ -42,23 +89,41 @@ public class Money {
     }
 
     public Money(double denomination, Currency currency) {
-        this(new BigDecimal(denomination), currency.getCurrencyCode());
+        this(new BigDecimal(denomination), currency);
     }
 
     public Money(double denomination, String currencyCode) {
-        this(new BigDecimal(denomination), currencyCode);
+        this(new BigDecimal(denomination), currencyCode, null);
     }
 
     public Money(double denomination) {
         this(denomination, DEFAULT_CURRENCY);
     }
 
+    /**
+     * @param units amount in minor units, e.g. cents
+     */
+    public static Money ofMinorUnits(long units, Currency currency) {
+        return new Money(currency, units);
+    }
+
     public Money multiplyBy(double multiplier) {
         return multiplyBy(new BigDecimal(multiplier));
     }
 
     public Money multiplyBy(BigDecimal multiplier) {
-        return new Money(denomination.multiply(multiplier), currencyCode);
+        return new Money(toBigDecimal().multiply(multiplier), currency());
+    }
+
+    public Money multiplyBy(int multiplier) {
+        if (isCompact()) {
+            long high = Math.multiplyHigh(units, multiplier);
+            long low = units * multiplier;
+            if (high == (low >> 63)) {
+                return new Money(currency(), low);
+            }
+        }
+        return multiplyBy(BigDecimal.valueOf(multiplier));
     }
 
     public Money add(Money money) {
@@ -66,7 +131,13 @@ public class Money {
             throw new IllegalArgumentException("Currency mismatch");
         }
 
-        return new Money(denomination.add(money.denomination), determineCurrencyCode(money));
+        if (isCompact() && money.isCompact()) {
+            long sum = units + money.units;
+            if (((units ^ sum) & (money.units ^ sum)) >= 0) {
+                return new Money(determineCurrency(money), sum);
+            }
+        }
+        return new Money(toBigDecimal().add(money.toBigDecimal()), determineCurrency(money));
     }
 
     public Money subtract(Money money) {
@@ -74,27 +145,70 @@ public class Money {
             throw new IllegalArgumentException("Currency mismatch");
         }
 
-        return new Money(denomination.subtract(money.denomination), determineCurrencyCode(money));
+        if (isCompact() && money.isCompact()) {
+            long difference = units - money.units;
+            if (((units ^ money.units) & (units ^ difference)) >= 0) {
+                return new Money(determineCurrency(money), difference);
+            }
+        }
+        return new Money(toBigDecimal().subtract(money.toBigDecimal()), determineCurrency(money));
     }
 
     /**
      * Currency is compatible if the same or either money object has zero value.
      */
     private boolean compatibleCurrency(Money money) {
-        return isZero(denomination) || isZero(money.denomination) || currencyCode.equals(money.getCurrencyCode());
+        return isZero() || money.isZero() || currency() == money.currency();
     }
 
-    private boolean isZero(BigDecimal testedValue) {
-        return BigDecimal.ZERO.compareTo(testedValue) == 0;
+    boolean isZero() {
+        return isCompact() ? units == 0 : denomination.signum() == 0;
     }
 
     /**
-     * @return currency from this object or otherCurrencyCode. Preferred is the one that comes from Money that has
-     *         non-zero value.
+     * @return currency from this object or otherMoney. Preferred is the one that comes from Money that has non-zero
+     *         value.
      */
-    private Currency determineCurrencyCode(Money otherMoney) {
-        String resultingCurrenctCode = isZero(denomination) ? otherMoney.currencyCode : currencyCode;
-        return Currency.getInstance(resultingCurrenctCode);
+    private Currency determineCurrency(Money otherMoney) {
+        return isZero() ? otherMoney.currency() : currency();
+    }
+
+    Currency currency() {
+        Currency result = currency;
+        if (result == null) {
+            result = Currency.getInstance(currencyCode);
+            currency = result;
+        }
+        return result;
+    }
+
+    /**
+     * @return true if the amount is held as {@link #getUnits()}
+     */
+    boolean isCompact() {
+        byte result = form;
+        if (result == UNKNOWN) {
+            BigInteger unscaled = denomination.unscaledValue();
+            if (denomination.scale() == SCALE && unscaled.bitLength() < Long.SIZE) {
+                units = unscaled.longValue();
+                result = COMPACT;
+            } else {
+                result = DECIMAL;
+            }
+            form = result;
+        }
+        return result == COMPACT;
+    }
+
+    /**
+     * @return amount in minor units, only if {@link #isCompact()}
+     */
+    long getUnits() {
+        return units;
+    }
+
+    BigDecimal toBigDecimal() {
+        return denomination;
     }
 
     public String getCurrencyCode() {
@@ -102,24 +216,37 @@ public class Money {
     }
 
     public Currency getCurrency() {
-        return Currency.getInstance(currencyCode);
+        return currency();
     }
 
     public boolean greaterThan(Money other) {
-        return denomination.compareTo(other.denomination) > 0;
+        return compareTo(other) > 0;
     }
 
     public boolean lessThan(Money other) {
-        return denomination.compareTo(other.denomination) < 0;
+        return compareTo(other) < 0;
     }
 
     public boolean lessOrEquals(Money other) {
-        return denomination.compareTo(other.denomination) <= 0;
+        return compareTo(other) <= 0;
+    }
+
+    private int compareTo(Money other) {
+        if (isCompact() && other.isCompact()) {
+            return Long.compare(units, other.units);
+        }
+        return toBigDecimal().compareTo(other.toBigDecimal());
     }
 
     @Override
     public String toString() {
-        return String.format("%0$.2f %s", denomination, getCurrency().getSymbol());
+        MoneyFormat format = MoneyFormat.getDefault();
+        FormattedText result = text;
+        if (result == null || result.format != format) {
+            result = new FormattedText(format, format.format(this));
+            text = result;
+        }
+        return result.text;
     }
 
     @Override
@@ -160,4 +287,18 @@ public class Money {
         return true;
     }
 
+    /**
+     * Text in the default format; recomputed when the default locale, and so the format, changes.
+     */
+    private static class FormattedText {
+
+        private final MoneyFormat format;
+
+        private final String text;
+
+        FormattedText(MoneyFormat format, String text) {
+            this.format = format;
+            this.text = text;
+        }
+    }
 }
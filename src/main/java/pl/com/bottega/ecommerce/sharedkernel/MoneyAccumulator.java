@@ -0,0 +1,117 @@
+/*
+ * Copyright 2011-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package pl.com.bottega.ecommerce.sharedkernel;
+
+import java.math.BigDecimal;
+import java.util.Currency;
+
+/**
+ * Mutable running total of {@link Money} values. Not thread safe - meant to be used as a local while building a
+ * total, then turned into an immutable Money with {@link #toMoney()}.<br>
+ * Currency rules are the same as in {@link Money#add(Money)}: amounts are compatible if currencies are equal or either
+ * side is zero, and the resulting currency is taken from the non-zero side.
+ */
+public class MoneyAccumulator {
+
+    private long units;
+
+    private BigDecimal denomination;
+
+    private Currency currency;
+
+    private Money result;
+
+    public MoneyAccumulator() {
+        this(Money.ZERO);
+    }
+
+    public MoneyAccumulator(Money initial) {
+        set(initial);
+        this.result = initial;
+    }
+
+    public MoneyAccumulator add(Money money) {
+        boolean compact = money.isCompact();
+        return addUnits(money, compact ? money.getUnits() : 0, compact ? null : money.toBigDecimal());
+    }
+
+    public MoneyAccumulator subtract(Money money) {
+        if (money.isCompact() && money.getUnits() != Long.MIN_VALUE) {
+            return addUnits(money, -money.getUnits(), null);
+        }
+        return addUnits(money, 0, money.toBigDecimal().negate());
+    }
+
+    /**
+     * Adds price multiplied by quantity without creating the intermediate Money. Currencies are checked as in
+     * {@link #add(Money)} of the product, so a zero quantity adds nothing whatever the currency of price.
+     */
+    public MoneyAccumulator addMultiplied(Money price, int quantity) {
+        if (price.isCompact()) {
+            long high = Math.multiplyHigh(price.getUnits(), quantity);
+            long low = price.getUnits() * quantity;
+            if (high == (low >> 63)) {
+                return addUnits(price, low, null);
+            }
+        }
+        return addUnits(price, 0, price.toBigDecimal().multiply(BigDecimal.valueOf(quantity)));
+    }
+
+    private MoneyAccumulator addUnits(Money money, long delta, BigDecimal bigDelta) {
+        boolean zeroDelta = bigDelta == null ? delta == 0 : bigDelta.signum() == 0;
+        if (!isZero() && !zeroDelta && currency != money.currency()) {
+            throw new IllegalArgumentException("Currency mismatch");
+        }
+        if (isZero()) {
+            currency = money.currency();
+        }
+
+        if (denomination == null && bigDelta == null) {
+            long sum = units + delta;
+            if (((units ^ sum) & (delta ^ sum)) >= 0) {
+                units = sum;
+                result = null;
+                return this;
+            }
+        }
+        BigDecimal sum = current().add(bigDelta != null ? bigDelta : BigDecimal.valueOf(delta, Money.SCALE));
+        set(new Money(sum, currency));
+        return this;
+    }
+
+    private boolean isZero() {
+        return denomination == null && units == 0;
+    }
+
+    private BigDecimal current() {
+        return denomination != null ? denomination : BigDecimal.valueOf(units, Money.SCALE);
+    }
+
+    private void set(Money money) {
+        this.units = money.isCompact() ? money.getUnits() : 0;
+        this.denomination = money.isCompact() ? null : money.toBigDecimal();
+        this.currency = money.currency();
+        this.result = null;
+    }
+
+    /**
+     * @return immutable total; repeated calls without changes return the same instance
+     */
+    public Money toMoney() {
+        if (result == null) {
+            result = denomination == null ? new Money(currency, units) : new Money(denomination, currency);
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,360 @@
+/*
+ * Copyright 2011-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package pl.com.bottega.ecommerce.sharedkernel;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.text.DecimalFormatSymbols;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Locale aware text form of {@link Money}: amount with two fraction digits, a space and the currency symbol, e.g.
+ * <code>1234.50 €</code>, or the ISO code of the currency when its symbol is shared with another currency. Writes
+ * straight into the given target without {@link java.util.Formatter} or temporary strings; parsing does not use
+ * regular expressions.<br>
+ * Instances are immutable and cached per locale.
+ */
+public class MoneyFormat {
+
+    private static final Map<Locale, MoneyFormat> INSTANCES = new ConcurrentHashMap<Locale, MoneyFormat>();
+
+    private static final long[] POWERS_OF_TEN = new long[19];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private final Locale locale;
+
+    private final char zeroDigit;
+
+    private final char decimalSeparator;
+
+    private volatile Symbols symbols;
+
+    private MoneyFormat(Locale locale) {
+        DecimalFormatSymbols formatSymbols = DecimalFormatSymbols.getInstance(locale);
+        this.locale = locale;
+        this.zeroDigit = formatSymbols.getZeroDigit();
+        this.decimalSeparator = formatSymbols.getDecimalSeparator();
+    }
+
+    public static MoneyFormat getInstance(Locale locale) {
+        MoneyFormat format = INSTANCES.get(locale);
+        if (format == null) {
+            format = new MoneyFormat(locale);
+            MoneyFormat existing = INSTANCES.putIfAbsent(locale, format);
+            if (existing != null) {
+                format = existing;
+            }
+        }
+        return format;
+    }
+
+    public static MoneyFormat getDefault() {
+        return getInstance(Locale.getDefault(Locale.Category.FORMAT));
+    }
+
+    public Locale getLocale() {
+        return locale;
+    }
+
+    public String format(Money money) {
+        return format(money, new StringBuilder(24)).toString();
+    }
+
+    public StringBuilder format(Money money, StringBuilder target) {
+        try {
+            format(money, (Appendable) target);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return target;
+    }
+
+    public void format(Money money, Appendable target) throws IOException {
+        if (money.isCompact()) {
+            appendUnits(money.getUnits(), target);
+        } else {
+            appendDecimal(money.toBigDecimal(), target);
+        }
+        target.append(' ').append(symbol(money.currency()));
+    }
+
+    /**
+     * Writes the text form encoded as UTF-8.
+     * 
+     * @throws java.nio.BufferOverflowException if there is not enough space remaining
+     */
+    public void format(Money money, ByteBuffer target) {
+        try {
+            format(money, new Utf8Appender(target));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Parses the form written by this format. The currency may be given by its symbol in this locale, unless the
+     * symbol is shared by several currencies, or by its ISO code. Amounts with more than two fraction digits are
+     * rounded the same way as {@link Money} constructors do.
+     */
+    public Money parse(CharSequence text) {
+        int end = text.length();
+        while (end > 0 && Character.isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+        int position = 0;
+        while (position < end && Character.isWhitespace(text.charAt(position))) {
+            position++;
+        }
+
+        int amountStart = position;
+        boolean negative = false;
+        if (position < end && text.charAt(position) == '-') {
+            negative = true;
+            position++;
+        }
+
+        long units = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        boolean exact = true;
+        for (; position < end; position++) {
+            char c = text.charAt(position);
+            int digit = c - zeroDigit;
+            if (digit >= 0 && digit <= 9) {
+                digits++;
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+                if (exact && (fractionDigits > 2 || units > (Long.MAX_VALUE - digit) / 10)) {
+                    exact = false;
+                }
+                if (exact) {
+                    units = units * 10 + digit;
+                }
+            } else if (c == decimalSeparator && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else {
+                break;
+            }
+        }
+        int amountEnd = position;
+        if (digits == 0 || fractionDigits == 0) {
+            throw new IllegalArgumentException("Invalid amount: " + text);
+        }
+
+        while (position < end && Character.isWhitespace(text.charAt(position))) {
+            position++;
+        }
+        if (position == end || position == amountEnd) {
+            throw new IllegalArgumentException("Invalid money: " + text);
+        }
+        Currency currency = currency(text.subSequence(position, end).toString());
+
+        if (!exact) {
+            return new Money(parseDecimal(text, amountStart, amountEnd), currency);
+        }
+        long factor = POWERS_OF_TEN[2 - (fractionDigits < 0 ? 0 : fractionDigits)];
+        if (units > Long.MAX_VALUE / factor) {
+            return new Money(parseDecimal(text, amountStart, amountEnd), currency);
+        }
+        units *= factor;
+        return new Money(currency, negative ? -units : units);
+    }
+
+    private BigDecimal parseDecimal(CharSequence text, int start, int end) {
+        StringBuilder plain = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c == decimalSeparator) {
+                plain.append('.');
+            } else if (c == '-') {
+                plain.append(c);
+            } else {
+                plain.append((char) ('0' + (c - zeroDigit)));
+            }
+        }
+        return new BigDecimal(plain.toString());
+    }
+
+    private String symbol(Currency currency) {
+        String symbol = symbols().byCurrency.get(currency);
+        return symbol != null ? symbol : currency.getCurrencyCode();
+    }
+
+    private Currency currency(String symbolOrCode) {
+        Currency currency = symbols().bySymbol.get(symbolOrCode);
+        if (currency == null) {
+            try {
+                currency = Currency.getInstance(symbolOrCode);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown currency: " + symbolOrCode);
+            }
+        }
+        return currency;
+    }
+
+    private void appendUnits(long units, Appendable target) throws IOException {
+        // negative range is used so Long.MIN_VALUE needs no special case
+        long negative = units < 0 ? units : -units;
+        if (units < 0) {
+            target.append('-');
+        }
+        long integerPart = negative / 100;
+        for (int i = digitCount(integerPart) - 1; i >= 0; i--) {
+            target.append(digit(integerPart, i));
+        }
+        target.append(decimalSeparator).append(digit(negative, 1)).append(digit(negative, 0));
+    }
+
+    private void appendDecimal(BigDecimal amount, Appendable target) throws IOException {
+        String plain = amount.toPlainString();
+        for (int i = 0; i < plain.length(); i++) {
+            target.append(localize(plain.charAt(i)));
+        }
+    }
+
+    private char localize(char c) {
+        if (c == '.') {
+            return decimalSeparator;
+        }
+        if (c >= '0' && c <= '9') {
+            return (char) (zeroDigit + (c - '0'));
+        }
+        return c;
+    }
+
+    /**
+     * @param negative value not greater than zero
+     */
+    private static int digitCount(long negative) {
+        int count = 1;
+        while (count < POWERS_OF_TEN.length && negative <= -POWERS_OF_TEN[count]) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * @param negative value not greater than zero
+     */
+    private char digit(long negative, int position) {
+        return (char) (zeroDigit - (negative / POWERS_OF_TEN[position]) % 10);
+    }
+
+    private Symbols symbols() {
+        Symbols result = symbols;
+        if (result == null) {
+            result = new Symbols(locale);
+            symbols = result;
+        }
+        return result;
+    }
+
+    /**
+     * Symbols of all currencies in one locale. A symbol shared by several currencies, like "$" or "kr" in some
+     * locales, is not used at all: those currencies are written and parsed by ISO code only, so text always names
+     * one currency regardless of iteration order of {@link Currency#getAvailableCurrencies()}.
+     */
+    private static class Symbols {
+
+        private final Map<Currency, String> byCurrency = new HashMap<Currency, String>();
+
+        private final Map<String, Currency> bySymbol = new HashMap<String, Currency>();
+
+        Symbols(Locale locale) {
+            Set<Currency> currencies = Currency.getAvailableCurrencies();
+            Map<String, Integer> uses = new HashMap<String, Integer>();
+            for (Currency currency : currencies) {
+                uses.merge(currency.getSymbol(locale), 1, Integer::sum);
+            }
+            for (Currency currency : currencies) {
+                String symbol = currency.getSymbol(locale);
+                if (uses.get(symbol) == 1) {
+                    byCurrency.put(currency, symbol);
+                    bySymbol.put(symbol, currency);
+                }
+            }
+        }
+    }
+
+    /**
+     * Encodes appended text as UTF-8 straight into a buffer, so the byte form shares digit writing with the text
+     * form. A high surrogate is held back until its low surrogate is appended.
+     */
+    private static class Utf8Appender implements Appendable {
+
+        private final ByteBuffer target;
+
+        private char highSurrogate;
+
+        Utf8Appender(ByteBuffer target) {
+            this.target = target;
+        }
+
+        @Override
+        public Appendable append(CharSequence text) {
+            return append(text, 0, text.length());
+        }
+
+        @Override
+        public Appendable append(CharSequence text, int start, int end) {
+            for (int i = start; i < end; i++) {
+                append(text.charAt(i));
+            }
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) {
+            if (Character.isHighSurrogate(c)) {
+                highSurrogate = c;
+            } else if (Character.isLowSurrogate(c) && highSurrogate != 0) {
+                put(Character.toCodePoint(highSurrogate, c));
+                highSurrogate = 0;
+            } else {
+                put(c);
+            }
+            return this;
+        }
+
+        private void put(int codePoint) {
+            if (codePoint < 0x80) {
+                target.put((byte) codePoint);
+            } else if (codePoint < 0x800) {
+                target.put((byte) (0xC0 | (codePoint >> 6)));
+                target.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (codePoint < 0x10000) {
+                target.put((byte) (0xE0 | (codePoint >> 12)));
+                target.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                target.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else {
+                target.put((byte) (0xF0 | (codePoint >> 18)));
+                target.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                target.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                target.put((byte) (0x80 | (codePoint & 0x3F)));
+            }
+        }
+    }
+}
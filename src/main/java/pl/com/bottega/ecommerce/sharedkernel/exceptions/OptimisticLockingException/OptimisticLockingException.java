@@ -0,0 +1,36 @@
+package pl.com.bottega.ecommerce.sharedkernel.exceptions.OptimisticLockingException;
+
+import pl.com.bottega.ecommerce.canonicalmodel.publishedlanguage.Id;
+
+/**
+ * Aggregate was saved by someone else since it was loaded.
+ */
+public class OptimisticLockingException extends RuntimeException {
+
+	private static final long serialVersionUID = 4213906181538561284L;
+
+	private Id id;
+
+	private long expectedVersion;
+
+	private long actualVersion;
+
+	public OptimisticLockingException(Id id, long expectedVersion, long actualVersion) {
+		super("Aggregate " + id + " has version " + actualVersion + ", expected " + expectedVersion);
+		this.id = id;
+		this.expectedVersion = expectedVersion;
+		this.actualVersion = actualVersion;
+	}
+
+	public Id getId() {
+		return id;
+	}
+
+	public long getExpectedVersion() {
+		return expectedVersion;
+	}
+
+	public long getActualVersion() {
+		return actualVersion;
+	}
+}
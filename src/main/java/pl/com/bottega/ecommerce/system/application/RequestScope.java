@@ -0,0 +1,109 @@
+package pl.com.bottega.ecommerce.system.application;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Values resolved at most once per request (or batch) and shared by all
+ * handlers taking part in it.<br>
+ * A scope is bound to a thread only for the duration of
+ * {@link #call(Callable)}, like a scoped value: nothing stays behind in pooled
+ * threads. Work handed to other threads (pools, virtual threads) joins the
+ * scope through {@link #wrap(Runnable)} or {@link #wrap(Callable)}.
+ */
+public class RequestScope {
+
+	private static final ThreadLocal<RequestScope> CURRENT = new ThreadLocal<RequestScope>();
+
+	private final ConcurrentMap<Object, Memo<?>> values = new ConcurrentHashMap<Object, Memo<?>>();
+
+	/**
+	 * 
+	 * @return scope bound to current thread, null outside of any
+	 */
+	public static RequestScope current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * Runs task with this scope bound to current thread, restoring previous
+	 * binding afterwards.
+	 */
+	public <T> T call(Callable<T> task) throws Exception {
+		RequestScope previous = CURRENT.get();
+		CURRENT.set(this);
+		try {
+			return task.call();
+		} finally {
+			if (previous == null)
+				CURRENT.remove();
+			else
+				CURRENT.set(previous);
+		}
+	}
+
+	public void run(Runnable task) {
+		try {
+			call(() -> {
+				task.run();
+				return null;
+			});
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public <T> Callable<T> wrap(Callable<T> task) {
+		return () -> call(task);
+	}
+
+	public Runnable wrap(Runnable task) {
+		return () -> run(task);
+	}
+
+	/**
+	 * 
+	 * @return value stored under key, computed by supplier on first request;
+	 *         concurrent first requests compute it once
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T get(Object key, Supplier<T> supplier) {
+		Memo<?> memo = values.get(key);
+		if (memo == null) {
+			Memo<T> created = new Memo<T>(supplier);
+			memo = values.putIfAbsent(key, created);
+			if (memo == null)
+				memo = created;
+		}
+		return (T) memo.get();
+	}
+
+	private static class Memo<T> {
+		private Supplier<T> supplier;
+
+		private volatile T value;
+
+		private boolean computed;
+
+		Memo(Supplier<T> supplier) {
+			this.supplier = supplier;
+		}
+
+		T get() {
+			if (value != null)
+				return value;
+			synchronized (this) {
+				if (!computed) {
+					value = supplier.get();
+					computed = true;
+					supplier = null;
+				}
+				return value;
+			}
+		}
+	}
+}
@@ -1,9 +1,27 @@
 package pl.com.bottega.ecommerce.system.application;
 
+import java.util.function.Supplier;
+
 import pl.com.bottega.ecommerce.canonicalmodel.publishedlanguage.Id;
 
 public class SystemContext {
+	private static final Object SYSTEM_USER = SystemUser.class;
+
+	/**
+	 * 
+	 * @return user of current request, created once per {@link RequestScope}
+	 */
 	public SystemUser getSystemUser(){
-		return new SystemUser(new Id("1"));//TODO introduce security integration
+		return requestScoped(SYSTEM_USER, () -> new SystemUser(new Id("1")));//TODO introduce security integration
+	}
+
+	/**
+	 * 
+	 * @return value resolved once per current {@link RequestScope}, or
+	 *         resolved on every call outside of a scope
+	 */
+	public <T> T requestScoped(Object key, Supplier<T> supplier) {
+		RequestScope scope = RequestScope.current();
+		return scope == null ? supplier.get() : scope.get(key, supplier);
 	}
 }
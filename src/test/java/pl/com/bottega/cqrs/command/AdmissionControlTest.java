@@ -0,0 +1,139 @@
+package pl.com.bottega.cqrs.command;
+
+import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static pl.com.bottega.cqrs.command.Futures.failureOf;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+import org.junit.Test;
+
+import pl.com.bottega.cqrs.command.handler.CommandHandler;
+
+public class AdmissionControlTest {
+
+	@Test
+	public void rejectsWaitingCommandAfterMaxWaitEvenIfNoPermitIsReturned() throws InterruptedException {
+		AdmissionControl admission = new AdmissionControl(1, 1, 50, TimeUnit.MILLISECONDS);
+		boolean[] started = new boolean[2];
+		AtomicReference<CommandRejectedException> rejection = new AtomicReference<CommandRejectedException>();
+		CountDownLatch rejected = new CountDownLatch(1);
+
+		admission.submit(String.class, () -> started[0] = true, rejection::set);
+		admission.submit(String.class, () -> started[1] = true, e -> {
+			rejection.set(e);
+			rejected.countDown();
+		});
+
+		assertTrue(rejected.await(1, TimeUnit.SECONDS));
+		assertTrue(started[0]);
+		assertFalse(started[1]);
+		assertEquals(0, admission.getQueued());
+		assertEquals(1, admission.getInFlight());
+		assertEquals(1, admission.getRejectedCount());
+	}
+
+	@Test
+	public void rejectsAtOnceWhenQueueIsFull() {
+		AdmissionControl admission = new AdmissionControl(1, 0, 1, TimeUnit.SECONDS);
+		AtomicReference<CommandRejectedException> rejection = new AtomicReference<CommandRejectedException>();
+
+		admission.submit(String.class, () -> {
+		}, rejection::set);
+		assertNull(rejection.get());
+		admission.submit(String.class, () -> {
+		}, rejection::set);
+
+		assertEquals(String.class, rejection.get().getCommandType());
+	}
+
+	@Test
+	public void startsWaitingCommandWhenPermitIsReturned() {
+		AdmissionControl admission = new AdmissionControl(1, 1, 1, TimeUnit.MINUTES);
+		boolean[] started = new boolean[1];
+		long startNanos = System.nanoTime();
+
+		admission.submit(String.class, () -> {
+		}, e -> {
+		});
+		admission.submit(String.class, () -> started[0] = true, e -> {
+		});
+		assertFalse(started[0]);
+
+		admission.release(startNanos);
+
+		assertTrue(started[0]);
+		assertEquals(0, admission.getQueued());
+		assertEquals(1, admission.getInFlight());
+	}
+
+	@Test
+	public void commandsQueuedInMailboxHoldPermits() throws InterruptedException {
+		Deque<Runnable> tasks = new ArrayDeque<Runnable>();
+		CommandBus bus = new CommandBus(tasks::add);
+		AdmissionControl admission = new AdmissionControl(2, 0, 1, TimeUnit.MINUTES);
+		bus.register(String.class, command -> command, command -> "order", admission);
+
+		CompletableFuture<String> first = bus.dispatch("first");
+		CompletableFuture<String> second = bus.dispatch("second");
+		CompletableFuture<String> third = bus.dispatch("third");
+
+		assertEquals(2, admission.getInFlight());
+		assertThat(failureOf(third), instanceOf(CommandRejectedException.class));
+
+		while (!tasks.isEmpty())
+			tasks.poll().run();
+		assertEquals("first", first.join());
+		assertEquals("second", second.join());
+		assertEquals(0, admission.getInFlight());
+	}
+
+	@Test
+	public void waitingInMailboxOfBusyAggregateDoesNotLowerLimit() {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			CommandHandler<String, String> handler = command -> {
+				LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(5));
+				return command;
+			};
+			Function<String, Object> aggregateId = command -> command.substring(0, command.indexOf(':'));
+			CommandBus warmUp = new CommandBus(executor);
+			warmUp.register(String.class, handler, aggregateId);
+			for (int i = 0; i < 10; i++)
+				warmUp.dispatch("warm" + i + ":" + i).join();
+
+			CommandBus bus = new CommandBus(executor);
+			AdmissionControl admission = new AdmissionControl(64, 0, 1, TimeUnit.MINUTES);
+			bus.register(String.class, handler, aggregateId, admission);
+			List<CompletableFuture<String>> results = new ArrayList<CompletableFuture<String>>();
+			for (int i = 0; i < 40; i++) {
+				results.add(bus.dispatch("hot:" + i));
+				if (i % 2 == 0)
+					results.add(bus.dispatch("other" + i + ":" + i));
+			}
+
+			for (CompletableFuture<String> result : results)
+				result.join();
+			assertEquals(64, admission.getLimit());
+			assertEquals(0, admission.getRejectedCount());
+			assertEquals(0, admission.getInFlight());
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
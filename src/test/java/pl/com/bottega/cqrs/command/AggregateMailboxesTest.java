@@ -0,0 +1,124 @@
+package pl.com.bottega.cqrs.command;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class AggregateMailboxesTest {
+
+	private ManualExecutor executor;
+
+	private AggregateMailboxes mailboxes;
+
+	private List<String> ran;
+
+	private List<String> rejected;
+
+	@Before
+	public void setUp() {
+		executor = new ManualExecutor();
+		mailboxes = new AggregateMailboxes(executor);
+		ran = new ArrayList<String>();
+		rejected = new ArrayList<String>();
+	}
+
+	@Test
+	public void runsTasksOfAggregateAfterExecutorRecoversFromRejection() {
+		executor.rejectNext = true;
+		submit("order", "first");
+
+		assertThat(rejected, contains("first"));
+		assertEquals(0, mailboxes.activeMailboxes());
+
+		submit("order", "second");
+		executor.runAll();
+
+		assertThat(ran, contains("second"));
+		assertEquals(0, mailboxes.activeMailboxes());
+	}
+
+	@Test
+	public void rethrowsRejectionOfTaskWithoutHandler() {
+		executor.rejectNext = true;
+		try {
+			mailboxes.execute("order", () -> ran.add("first"));
+			fail("rejection expected");
+		} catch (RejectedExecutionException e) {
+			// expected
+		}
+
+		mailboxes.execute("order", () -> ran.add("second"));
+		executor.runAll();
+
+		assertThat(ran, contains("second"));
+		assertEquals(0, mailboxes.activeMailboxes());
+	}
+
+	@Test
+	public void rejectsPendingTasksWhenRescheduleIsRejected() {
+		for (int i = 0; i <= AggregateMailboxes.BATCH_SIZE; i++)
+			submit("order", "task" + i);
+
+		executor.rejectNext = true;
+		executor.runAll();
+
+		assertEquals(AggregateMailboxes.BATCH_SIZE, ran.size());
+		assertThat(rejected, contains("task" + AggregateMailboxes.BATCH_SIZE));
+		assertEquals(0, mailboxes.activeMailboxes());
+
+		submit("order", "later");
+		executor.runAll();
+
+		assertEquals("later", ran.get(ran.size() - 1));
+		assertEquals(0, mailboxes.activeMailboxes());
+	}
+
+	@Test
+	public void runsTasksOfOneAggregateInOrderOfSubmission() {
+		submit("order", "first");
+		submit("other", "other");
+		submit("order", "second");
+		executor.runAll();
+
+		assertThat(ran, contains("first", "second", "other"));
+		assertThat(rejected, empty());
+		assertEquals(0, mailboxes.activeMailboxes());
+	}
+
+	private void submit(Object aggregateId, String name) {
+		mailboxes.execute(aggregateId, () -> ran.add(name), e -> rejected.add(name));
+	}
+
+	private static class ManualExecutor implements Executor {
+		private final Deque<Runnable> queue = new ArrayDeque<Runnable>();
+
+		private boolean rejectNext;
+
+		@Override
+		public void execute(Runnable command) {
+			if (rejectNext) {
+				rejectNext = false;
+				throw new RejectedExecutionException("rejected once");
+			}
+			queue.add(command);
+		}
+
+		void runAll() {
+			Runnable next;
+			while ((next = queue.poll()) != null)
+				next.run();
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package pl.com.bottega.cqrs.command;
+
+import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import static pl.com.bottega.cqrs.command.Futures.failureOf;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import pl.com.bottega.cqrs.command.metrics.CommandMetrics;
+
+public class CommandBusTest {
+
+	private CommandBus bus;
+
+	private AdmissionControl admission;
+
+	@Before
+	public void setUp() {
+		bus = new CommandBus(Runnable::run);
+		admission = new AdmissionControl(1, 0, 1, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void failsFutureWhenCommandHasNoAggregateId() throws Exception {
+		bus.register(Command.class, command -> "done", command -> command.aggregateId, admission);
+
+		CompletableFuture<String> result = bus.dispatch(new Command(null));
+
+		assertThat(failureOf(result), instanceOf(IllegalArgumentException.class));
+		assertEquals(0, admission.getInFlight());
+		assertEquals("done", bus.dispatch(new Command("order")).get());
+	}
+
+	@Test
+	public void failsFutureWhenAggregateIdFunctionThrows() throws Exception {
+		bus.register(Command.class, command -> "done", command -> {
+			throw new IllegalStateException("broken");
+		}, admission);
+
+		CompletableFuture<String> result = bus.dispatch(new Command("order"));
+
+		assertThat(failureOf(result), instanceOf(IllegalStateException.class));
+		assertEquals(0, admission.getInFlight());
+	}
+
+	@Test
+	public void runsRetryWhenFirstDeliveryFailedBeforeReachingHandler() throws Exception {
+		boolean[] broken = { true };
+		bus = new CommandBus(task -> {
+			if (broken[0]) {
+				broken[0] = false;
+				throw new ExecutorFailure();
+			}
+			task.run();
+		});
+		bus.register(KeyedCommand.class, command -> "done");
+
+		try {
+			bus.dispatch(new KeyedCommand("key"));
+			throw new AssertionError("executor failure expected");
+		} catch (ExecutorFailure e) {
+			// expected
+		}
+
+		CompletableFuture<String> retry = bus.dispatch(new KeyedCommand("key"));
+		assertEquals("done", retry.get(1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void runsDuplicatesOnce() throws Exception {
+		int[] runs = new int[1];
+		bus.register(KeyedCommand.class, command -> "run " + ++runs[0]);
+
+		assertEquals("run 1", bus.dispatch(new KeyedCommand("key")).get());
+		assertEquals("run 1", bus.dispatch(new KeyedCommand("key")).get());
+		assertEquals("run 2", bus.dispatch(new KeyedCommand("other")).get());
+	}
+
+	@Test
+	public void recordsStagesAndCountersUnderRegisteredType() throws Exception {
+		CommandMetrics metrics = new CommandMetrics();
+		bus = new CommandBus(Runnable::run, new IdempotencyCache(10, 1, TimeUnit.MINUTES), metrics);
+		bus.register(Command.class, command -> {
+			if (command.aggregateId == null)
+				throw new IllegalStateException("broken");
+			return "done";
+		}, null, new AdmissionControl(1, 0, 1, TimeUnit.SECONDS));
+
+		bus.dispatch(new Command("order")).get();
+		failureOf(bus.dispatch(new Command(null)));
+
+		CommandMetrics.Snapshot snapshot = metrics.snapshot();
+		assertEquals(2, snapshot.getStages().get("Command.queued").getCount());
+		assertEquals(2, snapshot.getStages().get("Command.run").getCount());
+		assertEquals(Long.valueOf(1), snapshot.getCounters().get("Command.failed"));
+		assertNull(snapshot.getCounters().get("Command.rejected"));
+	}
+
+	@Test
+	public void defaultExecutorIsShared() {
+		assertSame(CommandBus.defaultExecutor(), CommandBus.defaultExecutor());
+	}
+
+	private static class Command {
+		private final String aggregateId;
+
+		Command(String aggregateId) {
+			this.aggregateId = aggregateId;
+		}
+	}
+
+	private static class KeyedCommand implements IdempotentCommand {
+		private final String key;
+
+		KeyedCommand(String key) {
+			this.key = key;
+		}
+
+		@Override
+		public Object getIdempotencyKey() {
+			return key;
+		}
+	}
+
+	private static class ExecutorFailure extends Error {
+		private static final long serialVersionUID = 1L;
+	}
+}
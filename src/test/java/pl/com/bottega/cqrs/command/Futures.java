@@ -0,0 +1,30 @@
+package pl.com.bottega.cqrs.command;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Results of commands for tests, also of other packages.
+ */
+public class Futures {
+
+	/**
+	 * 
+	 * @return exception the result failed with, waiting for it at most ten
+	 *         seconds
+	 * @throws AssertionError
+	 *             if the result completed normally or not in time
+	 */
+	public static Throwable failureOf(CompletableFuture<?> result) throws InterruptedException {
+		try {
+			result.get(10, TimeUnit.SECONDS);
+		} catch (ExecutionException e) {
+			return e.getCause();
+		} catch (TimeoutException e) {
+			throw new AssertionError("failure expected, still running");
+		}
+		throw new AssertionError("failure expected");
+	}
+}
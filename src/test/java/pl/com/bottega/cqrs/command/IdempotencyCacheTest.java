@@ -0,0 +1,102 @@
+package pl.com.bottega.cqrs.command;
+
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class IdempotencyCacheTest {
+
+	@Test
+	public void returnsResultStoredUnderKey() {
+		IdempotencyCache cache = new IdempotencyCache(10, 1, TimeUnit.MINUTES);
+		CompletableFuture<String> first = new CompletableFuture<String>();
+
+		assertNull(cache.putIfAbsent("key", first));
+		assertSame(first, cache.putIfAbsent("key", new CompletableFuture<String>()));
+	}
+
+	@Test
+	public void forgottenKeyIsStoredAgain() {
+		IdempotencyCache cache = new IdempotencyCache(10, 1, TimeUnit.MINUTES);
+		CompletableFuture<String> failed = new CompletableFuture<String>();
+		cache.putIfAbsent("key", failed);
+
+		cache.remove("key", failed);
+
+		assertNull(cache.putIfAbsent("key", new CompletableFuture<String>()));
+	}
+
+	@Test
+	public void forgottenKeysDoNotGrowQueueBeyondCapacity() {
+		IdempotencyCache cache = new IdempotencyCache(100, 1, TimeUnit.MINUTES);
+		cache.putIfAbsent("live", new CompletableFuture<String>());
+
+		for (int i = 0; i < 200000; i++) {
+			CompletableFuture<String> failed = new CompletableFuture<String>();
+			cache.putIfAbsent(i, failed);
+			cache.remove(i, failed);
+		}
+
+		assertThat(cache.queued(), lessThanOrEqualTo(100));
+		assertThat(cache.size(), lessThanOrEqualTo(100));
+	}
+
+	@Test
+	public void holdsAtMostCapacityKeys() {
+		IdempotencyCache cache = new IdempotencyCache(100, 1, TimeUnit.MINUTES);
+
+		for (int i = 0; i < 1000; i++)
+			cache.putIfAbsent(i, CompletableFuture.completedFuture("done"));
+
+		assertEquals(100, cache.size());
+		assertEquals(100, cache.queued());
+		assertNull(cache.putIfAbsent(0, new CompletableFuture<String>()));
+	}
+
+	@Test
+	public void keysOfRunningCommandsAreNotEvicted() {
+		IdempotencyCache cache = new IdempotencyCache(100, 1, TimeUnit.MINUTES);
+		CompletableFuture<String> running = new CompletableFuture<String>();
+		cache.putIfAbsent("running", running);
+
+		for (int i = 0; i < 1000; i++)
+			cache.putIfAbsent(i, CompletableFuture.completedFuture("done"));
+
+		assertSame(running, cache.putIfAbsent("running", new CompletableFuture<String>()));
+		assertEquals(100, cache.size());
+	}
+
+	@Test
+	public void expiredKeyIsStoredAgain() {
+		AtomicLong now = new AtomicLong();
+		IdempotencyCache cache = new IdempotencyCache(10, 1, TimeUnit.MINUTES, now::get);
+		cache.putIfAbsent("key", CompletableFuture.completedFuture("done"));
+
+		now.addAndGet(TimeUnit.MINUTES.toNanos(1));
+
+		assertNull(cache.putIfAbsent("key", new CompletableFuture<String>()));
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void keyOfRunningCommandOutlivesTimeToLive() {
+		AtomicLong now = new AtomicLong();
+		IdempotencyCache cache = new IdempotencyCache(10, 1, TimeUnit.MINUTES, now::get);
+		CompletableFuture<String> running = new CompletableFuture<String>();
+		cache.putIfAbsent("key", running);
+
+		now.addAndGet(TimeUnit.MINUTES.toNanos(2));
+
+		assertSame(running, cache.putIfAbsent("key", new CompletableFuture<String>()));
+		running.complete("done");
+		assertNull(cache.putIfAbsent("key", new CompletableFuture<String>()));
+	}
+}
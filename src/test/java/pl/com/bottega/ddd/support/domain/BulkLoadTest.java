@@ -0,0 +1,51 @@
+package pl.com.bottega.ddd.support.domain;
+
+import static org.hamcrest.Matchers.contains;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import pl.com.bottega.ecommerce.canonicalmodel.publishedlanguage.Id;
+
+public class BulkLoadTest {
+
+	@Test
+	public void returnsFoundAggregatesInOrderOfIds() {
+		Id first = new Id("1");
+		Id missing = new Id("2");
+		Id third = new Id("3");
+
+		Map<Id, String> loaded = BulkLoad.loadOneByOne(Arrays.asList(third, missing, first, third),
+				id -> id.equals(missing) ? null : id.getId());
+
+		assertThat(loaded.keySet(), contains(third, first));
+		assertThat(loaded.values(), contains("3", "1"));
+	}
+
+	@Test
+	public void loadsEachIdOnceOnCallingThread() {
+		List<Thread> threads = new ArrayList<Thread>();
+		List<Id> loadedIds = new ArrayList<Id>();
+
+		BulkLoad.loadOneByOne(Arrays.asList(new Id("1"), new Id("2"), new Id("1")), id -> {
+			threads.add(Thread.currentThread());
+			loadedIds.add(id);
+			return id;
+		});
+
+		assertThat(loadedIds, contains(new Id("1"), new Id("2")));
+		assertThat(threads, contains(Thread.currentThread(), Thread.currentThread()));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rethrowsFailureOfLoader() {
+		BulkLoad.loadOneByOne(Arrays.asList(new Id("1")), id -> {
+			throw new IllegalArgumentException();
+		});
+	}
+}
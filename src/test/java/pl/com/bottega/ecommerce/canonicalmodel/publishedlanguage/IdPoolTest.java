@@ -0,0 +1,36 @@
+package pl.com.bottega.ecommerce.canonicalmodel.publishedlanguage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class IdPoolTest {
+
+	private final IdPool pool = new IdPool();
+
+	@Test
+	public void returnsFirstInternedInstanceForEqualIds() {
+		Id id = Id.generate();
+
+		assertSame(id, pool.intern(id));
+		assertSame(id, pool.intern(new Id(id.getId())));
+		assertEquals(1, pool.size());
+	}
+
+	@Test
+	public void keepsDifferentIdsApart() {
+		Id first = Id.generate();
+		Id second = Id.generate();
+
+		assertSame(first, pool.intern(first));
+		assertSame(second, pool.intern(second));
+		assertEquals(2, pool.size());
+	}
+
+	@Test
+	public void internOfNullIsNull() {
+		assertNull(pool.intern(null));
+	}
+}
@@ -0,0 +1,113 @@
+package pl.com.bottega.ecommerce.canonicalmodel.publishedlanguage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.util.Base64;
+
+import org.junit.Test;
+
+public class IdTest {
+
+	private static final String UUID = "0190a1b2-c3d4-7e5f-8a6b-7c8d9e0f1a2b";
+
+	/**
+	 * new Id(UUID) serialized by the original, string-only Id class
+	 */
+	private static final String ORIGINAL_FORM = "rO0ABXNyADxwbC5jb20uYm90dGVnYS5lY29tbWVyY2UuY2Fub25pY2FsbW9kZWwucHVi"
+			+ "bGlzaGVkbGFuZ3VhZ2UuSWTJU/yqo9IMfgIAAUwAAmlkdAASTGphdmEvbGFuZy9TdHJpbmc7eHB0ACQwMTkwYTFiMi1jM2Q0LTdl"
+			+ "NWYtOGE2Yi03YzhkOWUwZjFhMmI=";
+
+	@Test
+	public void keepsStringItWasCreatedFrom() {
+		for (String text : new String[] { UUID, "0190A1B2-C3D4-7E5F-8A6B-7C8D9E0F1A2B", "order-1", "" }) {
+			Id id = new Id(text);
+
+			assertSame(text, id.getId());
+			assertSame(text, id.toString());
+			assertEquals(text.hashCode(), id.hashCode());
+		}
+	}
+
+	@Test
+	public void generatedIdEqualsIdOfItsString() {
+		Id generated = Id.generate();
+
+		Id parsed = new Id(generated.getId());
+
+		assertEquals(generated, parsed);
+		assertEquals(generated.hashCode(), parsed.hashCode());
+		assertSame(generated.getId(), generated.toString());
+	}
+
+	@Test
+	public void differentIdsAreNotEqual() {
+		assertNotEquals(Id.generate(), Id.generate());
+		assertNotEquals(new Id(UUID), new Id(UUID.toUpperCase()));
+	}
+
+	@Test
+	public void survivesSerialization() throws Exception {
+		Id id = Id.generate();
+
+		Id copy = deserialize(serialize(id));
+
+		assertEquals(id, copy);
+		assertEquals(id.getId(), copy.getId());
+		assertEquals(id.hashCode(), copy.hashCode());
+	}
+
+	@Test
+	public void readsFormOfOriginalClass() throws Exception {
+		Id restored = deserialize(Base64.getDecoder().decode(ORIGINAL_FORM));
+
+		assertEquals(new Id(UUID), restored);
+		assertEquals(UUID, restored.getId());
+	}
+
+	@Test
+	public void idHydratedThroughFieldEqualsIdOfSameString() throws Exception {
+		Constructor<Id> constructor = Id.class.getDeclaredConstructor();
+		constructor.setAccessible(true);
+		Id hydrated = constructor.newInstance();
+		Field field = Id.class.getDeclaredField("id");
+		field.setAccessible(true);
+		field.set(hydrated, UUID);
+
+		Id created = new Id(UUID);
+
+		assertEquals(created, hydrated);
+		assertEquals(hydrated, created);
+		assertEquals(created.hashCode(), hydrated.hashCode());
+	}
+
+	@Test
+	public void storesStringOfGeneratedIdInItsField() throws Exception {
+		Field field = Id.class.getDeclaredField("id");
+		field.setAccessible(true);
+		Id generated = Id.generate();
+
+		assertEquals(generated.getId(), field.get(generated));
+	}
+
+	private static byte[] serialize(Id id) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(id);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static Id deserialize(byte[] bytes) throws Exception {
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+			return (Id) in.readObject();
+		}
+	}
+}
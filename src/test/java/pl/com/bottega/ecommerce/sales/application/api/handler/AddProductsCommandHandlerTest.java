@@ -0,0 +1,78 @@
+package pl.com.bottega.ecommerce.sales.application.api.handler;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Field;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import pl.com.bottega.ecommerce.canonicalmodel.publishedlanguage.Id;
+import pl.com.bottega.ecommerce.sales.application.api.command.AddProductsCommand;
+import pl.com.bottega.ecommerce.sales.domain.productscatalog.InMemoryProductRepository;
+import pl.com.bottega.ecommerce.sales.domain.productscatalog.Product;
+import pl.com.bottega.ecommerce.sales.domain.productscatalog.ProductType;
+import pl.com.bottega.ecommerce.sales.domain.reservation.InMemoryReservationRepository;
+import pl.com.bottega.ecommerce.sales.domain.reservation.Reservation;
+import pl.com.bottega.ecommerce.sales.domain.reservation.Reservations;
+import pl.com.bottega.ecommerce.sharedkernel.Money;
+import pl.com.bottega.ecommerce.sharedkernel.exceptions.DomainOperationException.DomainOperationException;
+
+public class AddProductsCommandHandlerTest {
+
+	private final AddProductsCommandHandler handler = new AddProductsCommandHandler();
+
+	private final InMemoryReservationRepository reservations = new InMemoryReservationRepository();
+
+	private final InMemoryProductRepository products = new InMemoryProductRepository();
+
+	private final Id orderId = Id.generate();
+
+	private final Product product = new Product(Id.generate(), new Money(10), "product", ProductType.STANDARD);
+
+	@Before
+	public void setUp() throws Exception {
+		inject("reservationRepository", reservations);
+		inject("productRepository", products);
+
+		reservations.save(Reservations.newReservation(orderId));
+		products.save(product);
+	}
+
+	@Test
+	public void addsAllProducts() {
+		Product other = new Product(Id.generate(), new Money(20), "other", ProductType.STANDARD);
+		products.save(other);
+
+		handler.handle(new AddProductsCommand(orderId).add(product.getId(), 1).add(other.getId(), 2));
+
+		Reservation saved = reservations.load(orderId);
+		assertEquals(2, saved.getReservedProducts().size());
+		assertEquals(2, saved.getVersion());
+	}
+
+	@Test
+	public void rejectsUnknownProductNamingItWithoutSaving() {
+		Id unknown = Id.generate();
+
+		try {
+			handler.handle(new AddProductsCommand(orderId).add(product.getId(), 1).add(unknown, 1));
+			fail("unknown product should be rejected");
+		} catch (DomainOperationException expected) {
+			assertThat(expected.getMessage(), containsString(unknown.toString()));
+		}
+
+		Reservation stored = reservations.load(orderId);
+		assertEquals(0, stored.getReservedProducts().size());
+		assertEquals(1, stored.getVersion());
+	}
+
+	private void inject(String name, Object dependency) throws Exception {
+		Field field = AddProductsCommandHandler.class.getDeclaredField(name);
+		field.setAccessible(true);
+		field.set(handler, dependency);
+	}
+}
@@ -0,0 +1,131 @@
+package pl.com.bottega.ecommerce.sales.application.api.handler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static pl.com.bottega.cqrs.command.Futures.failureOf;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import pl.com.bottega.ecommerce.canonicalmodel.publishedlanguage.Id;
+import pl.com.bottega.ecommerce.sales.application.api.command.AddProductCommand;
+import pl.com.bottega.ecommerce.sales.domain.productscatalog.InMemoryProductRepository;
+import pl.com.bottega.ecommerce.sales.domain.productscatalog.Product;
+import pl.com.bottega.ecommerce.sales.domain.productscatalog.ProductType;
+import pl.com.bottega.ecommerce.sales.domain.reservation.InMemoryReservationRepository;
+import pl.com.bottega.ecommerce.sales.domain.reservation.Reservation;
+import pl.com.bottega.ecommerce.sales.domain.reservation.Reservations;
+import pl.com.bottega.ecommerce.sharedkernel.Money;
+import pl.com.bottega.ecommerce.system.application.RequestScope;
+import pl.com.bottega.ecommerce.system.application.SystemContext;
+
+public class AsyncAddProductCommandHandlerTest {
+
+	private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+	private final AsyncAddProductCommandHandler handler = new AsyncAddProductCommandHandler(executor);
+
+	private final RecordingReservationRepository reservations = new RecordingReservationRepository();
+
+	private final InMemoryProductRepository products = new InMemoryProductRepository();
+
+	private final Id orderId = Id.generate();
+
+	private final Product product = new Product(Id.generate(), new Money(10), "product", ProductType.STANDARD);
+
+	@Before
+	public void setUp() throws Exception {
+		inject("reservationRepository", reservations);
+		inject("productRepository", products);
+		inject("systemContext", new SystemContext());
+
+		reservations.save(Reservations.newReservation(orderId));
+		reservations.saves.set(0);
+		products.save(product);
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdown();
+	}
+
+	@Test
+	public void addsAndSavesInScopeOfCommand() throws Exception {
+		RequestScope scope = new RequestScope();
+
+		CompletableFuture<Void> result = scope.call(() -> handler.handleAsync(new AddProductCommand(orderId,
+				product.getId(), 1)));
+
+		assertNull(result.get());
+		assertEquals(1, reservations.saves.get());
+		assertSame(scope, reservations.savedIn);
+		assertEquals(1, reservations.load(orderId).getReservedProducts().size());
+	}
+
+	@Test
+	public void failedProductLoadFailsCommandWithoutSave() throws Exception {
+		IllegalStateException unreachable = new IllegalStateException("product store unreachable");
+		inject("productRepository", new InMemoryProductRepository() {
+			@Override
+			public Product load(Id productId) {
+				throw unreachable;
+			}
+		});
+
+		CompletableFuture<Void> result = handler.handleAsync(new AddProductCommand(orderId, product.getId(), 1));
+
+		assertSame(unreachable, failureOf(result));
+		assertEquals(0, reservations.saves.get());
+	}
+
+	@Test
+	public void failedReservationLoadFailsCommandWithoutSave() throws Exception {
+		IllegalStateException unreachable = new IllegalStateException("reservation store unreachable");
+		reservations.loadFailure = unreachable;
+
+		CompletableFuture<Void> result = handler.handleAsync(new AddProductCommand(orderId, product.getId(), 1));
+
+		assertSame(unreachable, failureOf(result));
+		assertEquals(0, reservations.saves.get());
+	}
+
+	private void inject(String name, Object dependency) throws Exception {
+		Field field = AsyncAddProductCommandHandler.class.getDeclaredField(name);
+		field.setAccessible(true);
+		field.set(handler, dependency);
+	}
+
+	/**
+	 * Counts saves and remembers scope of the last one; loads fail once
+	 * loadFailure is set.
+	 */
+	private static class RecordingReservationRepository extends InMemoryReservationRepository {
+		private final AtomicInteger saves = new AtomicInteger();
+
+		private volatile RequestScope savedIn;
+
+		private volatile RuntimeException loadFailure;
+
+		@Override
+		public Reservation load(Id reservationId) {
+			if (loadFailure != null)
+				throw loadFailure;
+			return super.load(reservationId);
+		}
+
+		@Override
+		public void save(Reservation reservation) {
+			saves.incrementAndGet();
+			savedIn = RequestScope.current();
+			super.save(reservation);
+		}
+	}
+}
@@ -0,0 +1,178 @@
+package pl.com.bottega.ecommerce.sales.application.api.handler;
+
+import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import static pl.com.bottega.cqrs.command.Futures.failureOf;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import pl.com.bottega.ecommerce.canonicalmodel.publishedlanguage.Id;
+import pl.com.bottega.ecommerce.sales.application.api.command.AddProductCommand;
+import pl.com.bottega.ecommerce.sales.domain.client.Client;
+import pl.com.bottega.ecommerce.sales.domain.client.ClientRepository;
+import pl.com.bottega.ecommerce.sales.domain.equivalent.SuggestionService;
+import pl.com.bottega.ecommerce.sales.domain.productscatalog.InMemoryProductRepository;
+import pl.com.bottega.ecommerce.sales.domain.productscatalog.Product;
+import pl.com.bottega.ecommerce.sales.domain.productscatalog.ProductType;
+import pl.com.bottega.ecommerce.sales.domain.reservation.InMemoryReservationRepository;
+import pl.com.bottega.ecommerce.sales.domain.reservation.Reservation;
+import pl.com.bottega.ecommerce.sales.domain.reservation.Reservations;
+import pl.com.bottega.ecommerce.sharedkernel.Money;
+import pl.com.bottega.ecommerce.sharedkernel.exceptions.DomainOperationException.DomainOperationException;
+import pl.com.bottega.ecommerce.system.application.RequestScope;
+import pl.com.bottega.ecommerce.system.application.SystemContext;
+
+public class CoalescingAddProductCommandHandlerTest {
+
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+	/**
+	 * Batches of two, applied on the thread completing them
+	 */
+	private final CoalescingAddProductCommandHandler handler = new CoalescingAddProductCommandHandler(1,
+			TimeUnit.MINUTES, 2, scheduler, Runnable::run);
+
+	private final CountingReservationRepository reservations = new CountingReservationRepository();
+
+	private final InMemoryProductRepository products = new InMemoryProductRepository();
+
+	private final AtomicReference<Client> suggestedFor = new AtomicReference<Client>();
+
+	private final Client storedClient = new Client();
+
+	private final Id orderId = Id.generate();
+
+	private final Product first = newProduct();
+
+	private final Product second = newProduct();
+
+	@Before
+	public void setUp() throws Exception {
+		inject("reservationRepository", reservations);
+		inject("productRepository", products);
+		inject("suggestionService", (SuggestionService) (product, client) -> {
+			suggestedFor.set(client);
+			return product;
+		});
+		inject("clientRepository", new ClientRepository() {
+			@Override
+			public Client load(Id id) {
+				return storedClient;
+			}
+
+			@Override
+			public void save(Client client) {
+			}
+		});
+		inject("systemContext", new SystemContext());
+
+		reservations.save(Reservations.newReservation(orderId));
+		reservations.saves.set(0);
+		products.save(first);
+		products.save(second);
+	}
+
+	@After
+	public void tearDown() {
+		scheduler.shutdownNow();
+	}
+
+	@Test
+	public void savesCommandsOfOneBatchOnce() {
+		CompletableFuture<Void> firstResult = handler.submit(new AddProductCommand(orderId, first.getId(), 1));
+		CompletableFuture<Void> secondResult = handler.submit(new AddProductCommand(orderId, second.getId(), 2));
+
+		assertNull(firstResult.join());
+		assertNull(secondResult.join());
+		assertEquals(1, reservations.saves.get());
+		Reservation saved = reservations.load(orderId);
+		assertEquals(2, saved.getReservedProducts().size());
+		assertEquals(2, saved.getVersion());
+	}
+
+	@Test
+	public void failureOfOneCommandDoesNotFailOthersOfItsBatch() throws InterruptedException {
+		first.markAsRemoved();
+
+		CompletableFuture<Void> failed = handler.submit(new AddProductCommand(orderId, first.getId(), 1));
+		CompletableFuture<Void> added = handler.submit(new AddProductCommand(orderId, second.getId(), 1));
+
+		assertThat(failureOf(failed), instanceOf(DomainOperationException.class));
+		assertNull(added.join());
+		assertEquals(1, reservations.saves.get());
+		assertEquals(1, reservations.load(orderId).getReservedProducts().size());
+	}
+
+	@Test
+	public void reappliesBatchToReloadedReservationOnVersionConflict() {
+		reservations.concurrentSaves = 1;
+
+		CompletableFuture<Void> firstResult = handler.submit(new AddProductCommand(orderId, first.getId(), 1));
+		CompletableFuture<Void> secondResult = handler.submit(new AddProductCommand(orderId, second.getId(), 1));
+
+		assertNull(firstResult.join());
+		assertNull(secondResult.join());
+		assertEquals(3, reservations.saves.get());
+		Reservation saved = reservations.load(orderId);
+		assertEquals(2, saved.getReservedProducts().size());
+		assertEquals(3, saved.getVersion());
+	}
+
+	@Test
+	public void appliesCommandInScopeOfItsSubmitter() throws Exception {
+		Client scoped = new Client();
+		first.markAsRemoved();
+		RequestScope scope = new RequestScope();
+		scope.get(Client.class, () -> scoped);
+
+		CompletableFuture<Void> result = scope.call(() -> handler.submit(new AddProductCommand(orderId,
+				first.getId(), 1)));
+		handler.submit(new AddProductCommand(orderId, second.getId(), 1));
+
+		assertThat(failureOf(result), instanceOf(DomainOperationException.class));
+		assertSame(scoped, suggestedFor.get());
+	}
+
+	private void inject(String name, Object dependency) throws Exception {
+		Field field = CoalescingAddProductCommandHandler.class.getDeclaredField(name);
+		field.setAccessible(true);
+		field.set(handler, dependency);
+	}
+
+	private static Product newProduct() {
+		return new Product(Id.generate(), new Money(10), "product", ProductType.STANDARD);
+	}
+
+	/**
+	 * Counts saves, and can let someone else save the reservation right
+	 * before the next saves.
+	 */
+	private static class CountingReservationRepository extends InMemoryReservationRepository {
+		private final AtomicInteger saves = new AtomicInteger();
+
+		private int concurrentSaves;
+
+		@Override
+		public void save(Reservation reservation) {
+			if (concurrentSaves > 0) {
+				concurrentSaves--;
+				save(load(reservation.getId()));
+			}
+			saves.incrementAndGet();
+			super.save(reservation);
+		}
+	}
+}
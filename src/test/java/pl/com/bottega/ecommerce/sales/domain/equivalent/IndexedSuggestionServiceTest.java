@@ -0,0 +1,79 @@
+package pl.com.bottega.ecommerce.sales.domain.equivalent;
+
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import pl.com.bottega.ecommerce.canonicalmodel.publishedlanguage.Id;
+import pl.com.bottega.ecommerce.sales.domain.productscatalog.Product;
+import pl.com.bottega.ecommerce.sales.domain.productscatalog.ProductType;
+import pl.com.bottega.ecommerce.sharedkernel.Money;
+
+public class IndexedSuggestionServiceTest {
+
+	private IndexedSuggestionService service;
+
+	@Before
+	public void setUp() {
+		service = new IndexedSuggestionService();
+	}
+
+	@Test
+	public void suggestsAvailableProductOfSameTypeWithClosestPrice() {
+		Product removed = product(15, ProductType.DRUG);
+		Product closest = product(15.5, ProductType.DRUG);
+		Product farther = product(14, ProductType.DRUG);
+		Product otherType = product(15, ProductType.FOOD);
+		service.updateAll(Arrays.asList(removed, closest, farther, otherType));
+
+		removed.markAsRemoved();
+		service.update(removed);
+
+		assertSame(closest, service.suggestEquivalent(removed, null));
+	}
+
+	@Test
+	public void doesNotSuggestAnotherInstanceOfTheProblematicProduct() {
+		Id id = Id.generate();
+		Product indexed = new Product(id, new Money(15), "indexed", ProductType.DRUG);
+		service.update(indexed);
+		Product reloaded = new Product(id, new Money(15), "reloaded", ProductType.DRUG);
+		reloaded.markAsRemoved();
+
+		assertSame(reloaded, service.suggestEquivalent(reloaded, null));
+	}
+
+	@Test
+	public void lastInstanceWinsWhenBatchContainsSameIdTwice() {
+		Id id = Id.generate();
+		Product first = new Product(id, new Money(15), "first", ProductType.DRUG);
+		Product second = new Product(id, new Money(16), "second", ProductType.DRUG);
+		Product removed = product(15, ProductType.DRUG);
+		removed.markAsRemoved();
+
+		service.updateAll(Arrays.asList(first, second));
+
+		assertSame(second, service.suggestEquivalent(removed, null));
+	}
+
+	@Test
+	public void replacesIndexedProductWhenBatchContainsSameIdTwice() {
+		Id id = Id.generate();
+		service.update(new Product(id, new Money(15), "indexed", ProductType.DRUG));
+		Product first = new Product(id, new Money(15), "first", ProductType.DRUG);
+		Product second = new Product(id, new Money(15), "second", ProductType.DRUG);
+		Product removed = product(15, ProductType.DRUG);
+		removed.markAsRemoved();
+
+		service.updateAll(Arrays.asList(first, second));
+
+		assertSame(second, service.suggestEquivalent(removed, null));
+	}
+
+	private static Product product(double price, ProductType productType) {
+		return new Product(Id.generate(), new Money(price), "product", productType);
+	}
+}
@@ -0,0 +1,73 @@
+package pl.com.bottega.ecommerce.sales.domain.invoicing;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import pl.com.bottega.ecommerce.canonicalmodel.publishedlanguage.ClientData;
+import pl.com.bottega.ecommerce.canonicalmodel.publishedlanguage.Id;
+import pl.com.bottega.ecommerce.sales.domain.productscatalog.Product;
+import pl.com.bottega.ecommerce.sales.domain.productscatalog.ProductType;
+import pl.com.bottega.ecommerce.sharedkernel.ExchangeRates;
+import pl.com.bottega.ecommerce.sharedkernel.Money;
+
+public class BookKeeperTest {
+
+	private static final Currency EUR = Currency.getInstance("EUR");
+
+	private static final Currency USD = Currency.getInstance("USD");
+
+	private final BookKeeper bookKeeper = new BookKeeper(new InvoiceFactory());
+
+	/**
+	 * Tax of a tenth of net, rounded as any other money
+	 */
+	private final TaxPolicy tenPercent = (productType, net) -> new Tax(net.multiplyBy(0.1), "10%");
+
+	@Test
+	public void convertsEveryLineBeforeTaxingIt() {
+		InvoiceRequest request = new InvoiceRequest(new ClientData(Id.generate(), "client"));
+		request.add(item(new Money(new BigDecimal("0.10"), EUR)));
+		request.add(item(new Money(new BigDecimal("3.00"), USD)));
+
+		Invoice invoice = bookKeeper.issuance(request, tenPercent, rates(), USD);
+
+		InvoiceLine converted = invoice.getItems().get(0);
+		assertEquals(usd("0.12"), converted.getNet());
+		assertEquals(usd("0.01"), converted.getTax().getAmount());
+		assertEquals(usd("0.13"), converted.getGros());
+		InvoiceLine unchanged = invoice.getItems().get(1);
+		assertEquals(usd("3.00"), unchanged.getNet());
+		assertEquals(usd("3.30"), unchanged.getGros());
+		assertEquals(usd("3.12"), invoice.getNet());
+		assertEquals(usd("3.43"), invoice.getGros());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsInvoiceCurrencyWithoutRate() {
+		InvoiceRequest request = new InvoiceRequest(new ClientData(Id.generate(), "client"));
+		request.add(item(new Money(new BigDecimal("0.10"), EUR)));
+
+		bookKeeper.issuance(request, tenPercent, rates(), Currency.getInstance("GBP"));
+	}
+
+	private static RequestItem item(Money totalCost) {
+		Product product = new Product(Id.generate(), totalCost, "product", ProductType.STANDARD);
+		return new RequestItem(product.generateSnapshot(), 1, totalCost);
+	}
+
+	private static ExchangeRates rates() {
+		Map<Currency, BigDecimal> ratesToBase = new HashMap<Currency, BigDecimal>();
+		ratesToBase.put(USD, new BigDecimal("1.25"));
+		return new ExchangeRates(1, EUR, ratesToBase);
+	}
+
+	private static Money usd(String amount) {
+		return new Money(new BigDecimal(amount), USD);
+	}
+}
@@ -0,0 +1,60 @@
+package pl.com.bottega.ecommerce.sales.domain.offer;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import pl.com.bottega.ecommerce.canonicalmodel.publishedlanguage.Id;
+import pl.com.bottega.ecommerce.sales.domain.productscatalog.Product;
+import pl.com.bottega.ecommerce.sales.domain.productscatalog.ProductType;
+import pl.com.bottega.ecommerce.sharedkernel.ExchangeRates;
+import pl.com.bottega.ecommerce.sharedkernel.Money;
+
+public class OfferTest {
+
+	private static final Currency EUR = Currency.getInstance("EUR");
+
+	private static final Currency USD = Currency.getInstance("USD");
+
+	@Test
+	public void totalCostInOneCurrencyConvertsAndRoundsEveryItem() {
+		Offer offer = new Offer(Arrays.asList(item("0.10", EUR), item("0.10", EUR), item("1.00", USD)),
+				Collections.<OfferItem> emptyList());
+
+		assertEquals(new Money(new BigDecimal("1.24"), USD), offer.getTotalCost(rates(), USD));
+	}
+
+	@Test
+	public void totalCostSkipsUnavailableItems() {
+		Offer offer = new Offer(Arrays.asList(item("1.00", USD)), Arrays.asList(item("5.00", EUR)));
+
+		assertEquals(new Money(new BigDecimal("1.00"), USD), offer.getTotalCost(rates(), USD));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void totalCostRequiresRateOfEveryItem() {
+		Offer offer = new Offer(Arrays.asList(item("1.00", Currency.getInstance("GBP"))),
+				Collections.<OfferItem> emptyList());
+
+		offer.getTotalCost(rates(), USD);
+	}
+
+	private static OfferItem item(String price, Currency currency) {
+		Product product = new Product(Id.generate(), new Money(new BigDecimal(price), currency), "product",
+				ProductType.STANDARD);
+		return new OfferItem(product.generateSnapshot(), 1);
+	}
+
+	private static ExchangeRates rates() {
+		Map<Currency, BigDecimal> ratesToBase = new HashMap<Currency, BigDecimal>();
+		ratesToBase.put(USD, new BigDecimal("1.25"));
+		return new ExchangeRates(1, EUR, ratesToBase);
+	}
+}
@@ -0,0 +1,52 @@
+package pl.com.bottega.ecommerce.sales.domain.productscatalog;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class FrequencySketchTest {
+
+	private final FrequencySketch sketch = new FrequencySketch(1024);
+
+	@Test
+	public void countsIncrementsOfKey() {
+		for (int i = 0; i < 3; i++) {
+			sketch.increment("key");
+		}
+
+		assertEquals(3, sketch.frequency("key"));
+		assertEquals(0, sketch.frequency("other"));
+	}
+
+	@Test
+	public void concurrentIncrementsSaturateWithoutTouchingOtherCounters() throws Exception {
+		List<String> others = new ArrayList<String>();
+		for (int i = 0; others.size() < 100; i++) {
+			if (sketch.frequency("other" + i) == 0)
+				others.add("other" + i);
+		}
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 4; t++) {
+			threads.add(new Thread(() -> {
+				for (int i = 0; i < 10000; i++) {
+					sketch.increment("hot");
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(15, sketch.frequency("hot"));
+		for (String other : others) {
+			assertEquals(0, sketch.frequency(other));
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package pl.com.bottega.ecommerce.sales.domain.productscatalog;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.Assert.assertThat;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+
+import org.junit.Test;
+
+import pl.com.bottega.ecommerce.canonicalmodel.publishedlanguage.Id;
+import pl.com.bottega.ecommerce.sharedkernel.Money;
+
+public class InMemoryProductRepositoryTest {
+
+	private static final Instant NOW = Instant.parse("2014-06-10T12:00:00Z");
+
+	private final InMemoryProductRepository repository = new InMemoryProductRepository(
+			Clock.fixed(NOW, ZoneOffset.UTC));
+
+	@Test
+	public void findsProductsExpiringWithinDays() {
+		Product soon = product(1);
+		Product later = product(10);
+		repository.save(later);
+		repository.save(soon);
+
+		assertThat(repository.findProductWhereBestBeforeExpiredIn(2), contains(soon));
+	}
+
+	@Test
+	public void findsStoredProductWhoseDateWasMovedEarlierOnceSaved() {
+		Product product = product(10);
+		repository.save(product);
+
+		product.changeBestBefore(inDays(1));
+		assertThat(repository.findProductWhereBestBeforeExpiredIn(2), empty());
+		repository.save(product);
+
+		assertThat(repository.findProductWhereBestBeforeExpiredIn(2), contains(product));
+	}
+
+	@Test
+	public void skipsStoredProductWhoseDateWasMovedLater() {
+		Product product = product(1);
+		repository.save(product);
+
+		product.changeBestBefore(inDays(10));
+		repository.save(product);
+
+		assertThat(repository.findProductWhereBestBeforeExpiredIn(2), empty());
+	}
+
+	@Test
+	public void skipsRemovedProducts() {
+		Product product = product(1);
+		repository.save(product);
+
+		product.markAsRemoved();
+		repository.save(product);
+
+		assertThat(repository.findProductWhereBestBeforeExpiredIn(2), empty());
+	}
+
+	private static Product product(int expiresInDays) {
+		return new Product(Id.generate(), new Money(10), "product", ProductType.FOOD, inDays(expiresInDays));
+	}
+
+	private static Date inDays(int days) {
+		return Date.from(NOW.plus(days, ChronoUnit.DAYS));
+	}
+}
@@ -0,0 +1,73 @@
+package pl.com.bottega.ecommerce.sales.domain.reservation;
+
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static pl.com.bottega.ecommerce.sales.domain.reservation.Reservations.newReservation;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import pl.com.bottega.ecommerce.canonicalmodel.publishedlanguage.Id;
+import pl.com.bottega.ecommerce.sharedkernel.exceptions.OptimisticLockingException.OptimisticLockingException;
+
+public class InMemoryReservationRepositoryTest {
+
+	private final InMemoryReservationRepository repository = new InMemoryReservationRepository();
+
+	@Test
+	public void saveAssignsNextVersion() {
+		Reservation reservation = newReservation(Id.generate());
+
+		repository.save(reservation);
+		repository.save(reservation);
+
+		assertEquals(2, reservation.getVersion());
+		assertEquals(2, repository.load(reservation.getId()).getVersion());
+	}
+
+	@Test(expected = OptimisticLockingException.class)
+	public void rejectsSaveOfStaleCopy() {
+		Reservation reservation = newReservation(Id.generate());
+		repository.save(reservation);
+		Reservation stale = repository.load(reservation.getId());
+		repository.save(reservation);
+
+		repository.save(stale);
+	}
+
+	/**
+	 * Writer always saves first before second, so at any moment version of
+	 * first is equal to or one above version of second.
+	 */
+	@Test
+	public void snapshotSeesStoreAtOneMoment() throws Exception {
+		Reservation first = newReservation(Id.generate());
+		Reservation second = newReservation(Id.generate());
+		repository.save(first);
+		repository.save(second);
+
+		AtomicBoolean running = new AtomicBoolean(true);
+		Thread writer = new Thread(() -> {
+			while (running.get()) {
+				repository.save(first);
+				repository.save(second);
+			}
+		});
+		writer.start();
+		try {
+			for (int i = 0; i < 2000; i++) {
+				Map<Id, Reservation> snapshot = repository.snapshot();
+				long difference = snapshot.get(first.getId()).getVersion() - snapshot.get(second.getId()).getVersion();
+				assertThat(difference, greaterThanOrEqualTo(0L));
+				assertThat(difference, lessThanOrEqualTo(1L));
+			}
+		} finally {
+			running.set(false);
+			writer.join();
+		}
+	}
+}
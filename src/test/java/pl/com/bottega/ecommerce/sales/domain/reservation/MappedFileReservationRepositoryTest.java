@@ -0,0 +1,270 @@
+package pl.com.bottega.ecommerce.sales.domain.reservation;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static pl.com.bottega.ecommerce.sales.domain.reservation.Reservations.newReservation;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import pl.com.bottega.ecommerce.canonicalmodel.publishedlanguage.ClientData;
+import pl.com.bottega.ecommerce.canonicalmodel.publishedlanguage.Id;
+import pl.com.bottega.ecommerce.sales.domain.productscatalog.InMemoryProductRepository;
+import pl.com.bottega.ecommerce.sales.domain.productscatalog.Product;
+import pl.com.bottega.ecommerce.sales.domain.productscatalog.ProductType;
+import pl.com.bottega.ecommerce.sharedkernel.Money;
+import pl.com.bottega.ecommerce.sharedkernel.exceptions.OptimisticLockingException.OptimisticLockingException;
+
+public class MappedFileReservationRepositoryTest {
+
+	private static final int SEGMENT_SIZE = 64 * 1024;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Path directory;
+
+	private InMemoryProductRepository products;
+
+	private Product product;
+
+	private MappedFileReservationRepository repository;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = folder.newFolder("reservations").toPath();
+		products = new InMemoryProductRepository();
+		product = new Product(Id.generate(), new Money(10), "product", ProductType.STANDARD);
+		products.save(product);
+		repository = open();
+	}
+
+	@After
+	public void tearDown() {
+		repository.close();
+	}
+
+	@Test
+	public void onlyOneOfConcurrentSavesOfTheSameVersionWins() throws Exception {
+		Id id = Id.generate();
+		repository.save(newReservation(id));
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Boolean>> saves = new ArrayList<Future<Boolean>>();
+			for (int i = 0; i < 8; i++) {
+				saves.add(executor.submit((Callable<Boolean>) () -> {
+					Reservation reservation = repository.load(id);
+					reservation.add(product, 1);
+					try {
+						repository.save(reservation);
+						return true;
+					} catch (OptimisticLockingException e) {
+						return false;
+					}
+				}));
+			}
+			int won = 0;
+			for (Future<Boolean> save : saves)
+				won += save.get() ? 1 : 0;
+
+			Reservation loaded = repository.load(id);
+			assertEquals(1 + won, loaded.getVersion());
+			assertEquals(won, loaded.getItems().get(0).getQuantity());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void failedFirstSaveLeavesNoReservation() {
+		Id id = Id.generate();
+		Reservation reservation = newReservation(id);
+		reservation.assignVersion(3);
+
+		try {
+			repository.save(reservation);
+		} catch (OptimisticLockingException e) {
+			// expected
+		}
+
+		assertNull(repository.load(id));
+	}
+
+	@Test
+	public void loadNamesProductMissingFromRepository() {
+		Id id = Id.generate();
+		Reservation reservation = newReservation(id);
+		reservation.add(product, 2);
+		repository.save(reservation);
+		repository.close();
+		products = new InMemoryProductRepository();
+		repository = open();
+
+		try {
+			repository.load(id);
+			fail("missing product expected");
+		} catch (IllegalStateException e) {
+			assertThat(e.getMessage(), containsString(product.getId().toString()));
+		}
+	}
+
+	@Test
+	public void replaysLogOnReopen() {
+		Id first = Id.generate();
+		Id second = Id.generate();
+		Reservation reservation = newReservation(first);
+		repository.save(reservation);
+		reservation.add(product, 3);
+		repository.save(reservation);
+		repository.save(newReservation(second));
+
+		repository.close();
+		repository = open();
+
+		Reservation loaded = repository.load(first);
+		assertEquals(2, loaded.getVersion());
+		assertEquals(3, loaded.getItems().get(0).getQuantity());
+		assertEquals(1, repository.load(second).getVersion());
+	}
+
+	@Test
+	public void reservationsOfOneClientShareItsId() {
+		ClientData client = new ClientData(Id.generate(), "client");
+		Id first = Id.generate();
+		Id second = Id.generate();
+		repository.save(new Reservation(first, Reservation.ReservationStatus.OPENED, client, new Date()));
+		repository.save(new Reservation(second, Reservation.ReservationStatus.OPENED, client, new Date()));
+
+		Id clientId = repository.load(first).getClientData().getAggregateId();
+
+		assertEquals(client.getAggregateId(), clientId);
+		assertSame(clientId, repository.load(second).getClientData().getAggregateId());
+	}
+
+	@Test
+	public void ignoresTornRecordAtEndOfLog() throws IOException {
+		Id id = Id.generate();
+		Reservation reservation = newReservation(id);
+		repository.save(reservation);
+		repository.close();
+		appendTornRecord(lastSegment());
+
+		repository = open();
+		Reservation loaded = repository.load(id);
+		loaded.add(product, 1);
+		repository.save(loaded);
+		repository.close();
+		repository = open();
+
+		assertEquals(2, repository.load(id).getVersion());
+	}
+
+	@Test
+	public void compactionKeepsLatestStateOfEveryReservation() throws IOException {
+		Id busy = Id.generate();
+		Id quiet = Id.generate();
+		repository.save(newReservation(quiet));
+		Reservation reservation = newReservation(busy);
+		for (int i = 0; i < 2000; i++) {
+			reservation.add(product, 1);
+			repository.save(reservation);
+		}
+		long segmentsBefore = segmentCount();
+
+		int compacted = repository.compact();
+
+		assertThat(compacted, greaterThan(0));
+		assertThat(segmentCount(), lessThan(segmentsBefore));
+		assertEquals(2000, repository.load(busy).getItems().get(0).getQuantity());
+		assertEquals(1, repository.load(quiet).getVersion());
+
+		repository.close();
+		repository = open();
+		assertEquals(2000, repository.load(busy).getVersion());
+		assertEquals(1, repository.load(quiet).getVersion());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void refusesRecordsOfUnknownFormat() throws IOException {
+		repository.save(newReservation(Id.generate()));
+		repository.close();
+		try (FileChannel channel = FileChannel.open(lastSegment(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			ByteBuffer header = ByteBuffer.allocate(8);
+			channel.read(header, 0);
+			byte[] payload = new byte[header.getInt(0)];
+			channel.read(ByteBuffer.wrap(payload), 8);
+			payload[0] = 99;
+			CRC32 crc = new CRC32();
+			crc.update(payload);
+			header.putInt(4, (int) crc.getValue());
+			header.rewind();
+			channel.write(header, 0);
+			channel.write(ByteBuffer.wrap(payload), 8);
+		}
+
+		repository = open();
+	}
+
+	private void appendTornRecord(Path segment) throws IOException {
+		try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			ByteBuffer header = ByteBuffer.allocate(8);
+			int offset = 0;
+			while (true) {
+				header.clear();
+				channel.read(header, offset);
+				int length = header.getInt(0);
+				if (length == 0)
+					break;
+				offset += 8 + length;
+			}
+			ByteBuffer torn = ByteBuffer.allocate(8 + 20);
+			torn.putInt(20).putInt(12345).put(new byte[] { 1, 2, 3 });
+			torn.rewind();
+			channel.write(torn, offset);
+		}
+	}
+
+	private Path lastSegment() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(file -> file.toString().endsWith(".log")).sorted(Comparator.reverseOrder())
+					.findFirst().get();
+		}
+	}
+
+	private long segmentCount() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(file -> file.toString().endsWith(".log")).count();
+		}
+	}
+
+	private MappedFileReservationRepository open() {
+		return new MappedFileReservationRepository(directory, SEGMENT_SIZE, products);
+	}
+}
@@ -0,0 +1,121 @@
+package pl.com.bottega.ecommerce.sales.domain.reservation;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReservationLogTest {
+
+	private static final int SEGMENT_SIZE = 4096;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Path directory;
+
+	private final List<byte[]> replayed = new ArrayList<byte[]>();
+
+	@Before
+	public void setUp() throws IOException {
+		directory = folder.newFolder("log").toPath();
+	}
+
+	@Test
+	public void recordAppendedAfterTornOneIsNotFollowedByItsLeftovers() throws IOException {
+		ReservationLog log = open();
+		log.append(bytes("first"));
+		long tornOffset = log.end();
+		log.close();
+
+		// torn record whose payload happens to hold a valid record, right where
+		// a record of "second" would end
+		ByteBuffer torn = ByteBuffer.allocate(8 + 100);
+		torn.putInt(100).putInt(12345);
+		torn.position(8 + bytes("second").length);
+		torn.put(record(bytes("phantom")));
+		torn.rewind();
+		try (FileChannel channel = FileChannel.open(directory.resolve("0000000000.log"), StandardOpenOption.WRITE)) {
+			channel.write(torn, tornOffset);
+		}
+
+		log = open();
+		log.append(bytes("second"));
+		log.close();
+		replayed.clear();
+		open().close();
+
+		assertReplayed("first", "second");
+	}
+
+	@Test
+	public void recordThatFailedToBecomeDurableIsNotReplayed() {
+		ReservationLog log = new ReservationLog(directory, SEGMENT_SIZE, this::replay) {
+			private boolean failed;
+
+			@Override
+			void force(MappedByteBuffer buffer) {
+				if (!failed) {
+					failed = true;
+					throw new UncheckedIOException(new IOException("disk full"));
+				}
+				super.force(buffer);
+			}
+		};
+		long lost = log.append(bytes("lost"));
+		try {
+			log.awaitDurable(log.endOf(lost));
+			fail("flush failure expected");
+		} catch (UncheckedIOException expected) {
+			log.discard(lost);
+		}
+		long kept = log.append(bytes("kept"));
+		log.awaitDurable(log.endOf(kept));
+		log.close();
+
+		open().close();
+
+		assertReplayed("kept");
+	}
+
+	private ReservationLog open() {
+		return new ReservationLog(directory, SEGMENT_SIZE, this::replay);
+	}
+
+	private void replay(long location, byte[] payload) {
+		replayed.add(payload);
+	}
+
+	private void assertReplayed(String... payloads) {
+		assertEquals(payloads.length, replayed.size());
+		for (int i = 0; i < payloads.length; i++)
+			assertArrayEquals(bytes(payloads[i]), replayed.get(i));
+	}
+
+	private static byte[] record(byte[] payload) {
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+		return ByteBuffer.allocate(8 + payload.length).putInt(payload.length).putInt((int) crc.getValue())
+				.put(payload).array();
+	}
+
+	private static byte[] bytes(String text) {
+		return text.getBytes(StandardCharsets.UTF_8);
+	}
+}
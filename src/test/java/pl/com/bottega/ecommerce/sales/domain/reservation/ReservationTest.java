@@ -0,0 +1,111 @@
+package pl.com.bottega.ecommerce.sales.domain.reservation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import pl.com.bottega.ecommerce.canonicalmodel.publishedlanguage.ClientData;
+import pl.com.bottega.ecommerce.canonicalmodel.publishedlanguage.Id;
+import pl.com.bottega.ecommerce.sales.domain.offer.DiscountPolicy;
+import pl.com.bottega.ecommerce.sales.domain.offer.Offer;
+import pl.com.bottega.ecommerce.sales.domain.productscatalog.Product;
+import pl.com.bottega.ecommerce.sales.domain.productscatalog.ProductType;
+import pl.com.bottega.ecommerce.sharedkernel.Money;
+import pl.com.bottega.ecommerce.sharedkernel.exceptions.DomainOperationException.DomainOperationException;
+
+public class ReservationTest {
+
+	private Reservation reservation;
+
+	private Product reserved;
+
+	private Product other;
+
+	@Before
+	public void setUp() {
+		reservation = new Reservation(Id.generate(), Reservation.ReservationStatus.OPENED,
+				new ClientData(Id.generate(), "client"), new Date());
+		reserved = new Product(Id.generate(), new Money(10), "reserved", ProductType.STANDARD);
+		other = new Product(Id.generate(), new Money(20), "other", ProductType.STANDARD);
+		reservation.add(reserved, 2);
+	}
+
+	@Test
+	public void addAllAddsNewProductsAndChangesQuantitiesOfReservedOnes() {
+		Map<Product, Integer> quantities = new LinkedHashMap<Product, Integer>();
+		quantities.put(other, 3);
+		quantities.put(reserved, -1);
+
+		reservation.addAll(quantities);
+
+		assertEquals(2, reservation.getItems().size());
+		assertEquals(1, reservation.getItems().get(0).getQuantity());
+		assertEquals(3, reservation.getItems().get(1).getQuantity());
+	}
+
+	@Test
+	public void addAllChangesNothingWhenAQuantityWouldDropBelowOne() {
+		Map<Product, Integer> quantities = new LinkedHashMap<Product, Integer>();
+		quantities.put(other, 3);
+		quantities.put(reserved, -2);
+
+		try {
+			reservation.addAll(quantities);
+			fail("quantity dropping to 0 should be rejected");
+		} catch (DomainOperationException expected) {
+		}
+
+		assertEquals(1, reservation.getItems().size());
+		assertEquals(2, reservation.getItems().get(0).getQuantity());
+	}
+
+	@Test
+	public void addAllChecksTotalsOfProductListedTwice() {
+		Map<Product, Integer> quantities = new LinkedHashMap<Product, Integer>();
+		quantities.put(reserved, 5);
+		quantities.put(new Product(reserved.getId(), new Money(10), "reloaded", ProductType.STANDARD), -7);
+
+		try {
+			reservation.addAll(quantities);
+			fail("quantity dropping to 0 should be rejected");
+		} catch (DomainOperationException expected) {
+		}
+
+		assertEquals(2, reservation.getItems().get(0).getQuantity());
+	}
+
+	@Test
+	public void calculateOfferReturnsSameUnmodifiableOfferWhileNothingChanges() {
+		DiscountPolicy noDiscount = (product, quantity, regularCost) -> null;
+		Offer offer = reservation.calculateOffer(noDiscount);
+
+		assertSame(offer, reservation.calculateOffer(noDiscount));
+		try {
+			offer.getAvailabeItems().clear();
+			fail("offer shared by later calls should not be modifiable");
+		} catch (UnsupportedOperationException expected) {
+		}
+		assertEquals(1, reservation.calculateOffer(noDiscount).getAvailabeItems().size());
+	}
+
+	@Test
+	public void calculateOfferReflectsPriceChangedSinceLastOffer() {
+		DiscountPolicy noDiscount = (product, quantity, regularCost) -> null;
+		Offer offer = reservation.calculateOffer(noDiscount);
+
+		reserved.changePrice(new Money(15));
+		Offer repriced = reservation.calculateOffer(noDiscount);
+
+		assertNotSame(offer, repriced);
+		assertEquals(new Money(20), offer.getTotalCost());
+		assertEquals(new Money(30), repriced.getTotalCost());
+	}
+}
@@ -0,0 +1,17 @@
+package pl.com.bottega.ecommerce.sales.domain.reservation;
+
+import java.util.Date;
+
+import pl.com.bottega.ecommerce.canonicalmodel.publishedlanguage.ClientData;
+import pl.com.bottega.ecommerce.canonicalmodel.publishedlanguage.Id;
+
+/**
+ * Reservations for tests, also of other packages.
+ */
+public class Reservations {
+
+	public static Reservation newReservation(Id id) {
+		return new Reservation(id, Reservation.ReservationStatus.OPENED, new ClientData(Id.generate(), "client"),
+				new Date());
+	}
+}
@@ -0,0 +1,90 @@
+package pl.com.bottega.ecommerce.sharedkernel;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ExchangeRatesTest {
+
+    private static final Currency EUR = Currency.getInstance("EUR");
+
+    private static final Currency PLN = Currency.getInstance("PLN");
+
+    private static final Currency USD = Currency.getInstance("USD");
+
+    private static final Currency GBP = Currency.getInstance("GBP");
+
+    private final ExchangeRates rates = rates(new BigDecimal("4.00"), new BigDecimal("1.25"));
+
+    @Test
+    public void roundsConvertedAmountHalfEven() {
+        assertEquals(usd("0.12"), rates.convert(new Money(new BigDecimal("0.10"), EUR), USD));
+        assertEquals(usd("0.38"), rates.convert(new Money(new BigDecimal("0.30"), EUR), USD));
+    }
+
+    @Test
+    public void convertsBetweenCurrenciesOtherThanBase() {
+        assertEquals(new BigDecimal("0.3125"), rates.getRate(PLN, USD));
+        assertEquals(usd("31.25"), rates.convert(new Money(new BigDecimal("100"), PLN), USD));
+    }
+
+    @Test
+    public void totalRoundsEveryAmountBeforeAdding() {
+        Money tenCents = new Money(new BigDecimal("0.10"), EUR);
+
+        assertEquals(usd("0.24"), rates.total(Arrays.asList(tenCents, tenCents), USD));
+    }
+
+    @Test
+    public void conversionWithoutRateNamesCurrency() {
+        try {
+            rates.convert(new Money(new BigDecimal("1"), EUR), GBP);
+            fail("missing rate should be reported");
+        } catch (IllegalArgumentException expected) {
+            assertThat(expected.getMessage(), containsString("GBP"));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveRate() {
+        rates(BigDecimal.ZERO, new BigDecimal("1.25"));
+    }
+
+    @Test
+    public void snapshotIsNotChangedByLaterChangesOfItsSource() {
+        Map<Currency, BigDecimal> source = new HashMap<Currency, BigDecimal>();
+        source.put(PLN, new BigDecimal("4.00"));
+        ExchangeRates snapshot = new ExchangeRates(1, EUR, source);
+
+        source.put(PLN, new BigDecimal("5.00"));
+        source.put(USD, new BigDecimal("1.25"));
+
+        assertEquals(new BigDecimal("4.00"), snapshot.getRate(EUR, PLN));
+        assertEquals(2, snapshot.getCurrencies().size());
+        try {
+            snapshot.getCurrencies().clear();
+            fail("currencies of a snapshot should not be modifiable");
+        } catch (UnsupportedOperationException expected) {
+        }
+    }
+
+    private static ExchangeRates rates(BigDecimal pln, BigDecimal usd) {
+        Map<Currency, BigDecimal> ratesToBase = new HashMap<Currency, BigDecimal>();
+        ratesToBase.put(PLN, pln);
+        ratesToBase.put(USD, usd);
+        return new ExchangeRates(1, EUR, ratesToBase);
+    }
+
+    private static Money usd(String amount) {
+        return new Money(new BigDecimal(amount), USD);
+    }
+}
@@ -0,0 +1,104 @@
+package pl.com.bottega.ecommerce.sharedkernel;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Currency;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileExchangeRateProviderTest {
+
+    private static final Currency EUR = Currency.getInstance("EUR");
+
+    private static final Currency PLN = Currency.getInstance("PLN");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = folder.newFile("rates.properties").toPath();
+    }
+
+    @Test
+    public void readsRatesToBaseCurrency() throws IOException {
+        write("version=3", "base=EUR", "PLN = 4.3125 ");
+
+        ExchangeRates rates = new FileExchangeRateProvider(file).getCurrentRates();
+
+        assertEquals(3, rates.getVersion());
+        assertEquals(EUR, rates.getBaseCurrency());
+        assertEquals(new BigDecimal("4.3125"), rates.getRate(EUR, PLN));
+    }
+
+    @Test
+    public void reloadReplacesRatesOnlyWithNewerVersion() throws IOException {
+        write("version=3", "base=EUR", "PLN=4.3125");
+        FileExchangeRateProvider provider = new FileExchangeRateProvider(file);
+
+        write("version=2", "base=EUR", "PLN=4.50");
+        assertFalse(provider.reload());
+        assertEquals(new BigDecimal("4.3125"), provider.getCurrentRates().getRate(EUR, PLN));
+
+        write("version=4", "base=EUR", "PLN=4.50");
+        assertTrue(provider.reload());
+        assertEquals(new BigDecimal("4.50"), provider.getCurrentRates().getRate(EUR, PLN));
+    }
+
+    @Test
+    public void malformedRateIsReportedAndKeepsCurrentRates() throws IOException {
+        write("version=3", "base=EUR", "PLN=4.3125");
+        FileExchangeRateProvider provider = new FileExchangeRateProvider(file);
+        ExchangeRates current = provider.getCurrentRates();
+
+        write("version=4", "base=EUR", "PLN=4,50");
+        assertMalformed(provider, "PLN=4,50");
+
+        write("version=4", "base=EUR", "PLN 4.50 per euro");
+        assertMalformed(provider, "PLN=4.50 per euro");
+
+        write("version=4", "base=EUR", "XYZW=1.5");
+        assertMalformed(provider, "XYZW=1.5");
+
+        write("version=four", "base=EUR", "PLN=4.50");
+        assertMalformed(provider, "version=four");
+
+        assertSame(current, provider.getCurrentRates());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsFileWithoutVersion() throws IOException {
+        write("base=EUR", "PLN=4.3125");
+
+        new FileExchangeRateProvider(file);
+    }
+
+    private static void assertMalformed(FileExchangeRateProvider provider, String line) {
+        try {
+            provider.reload();
+            fail("malformed line " + line + " should be rejected");
+        } catch (IllegalArgumentException expected) {
+            assertThat(expected.getMessage(), containsString(line));
+        }
+    }
+
+    private void write(String... lines) throws IOException {
+        Files.write(file, String.join("\n", lines).getBytes(StandardCharsets.ISO_8859_1));
+    }
+}
@@ -0,0 +1,40 @@
+package pl.com.bottega.ecommerce.sharedkernel;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class MoneyAccumulatorTest {
+
+    private static final Money EUR_TOTAL = new Money(10, "EUR");
+
+    private static final Money USD_PRICE = new Money(3, "USD");
+
+    @Test
+    public void addMultipliedMatchesAddOfProduct() {
+        Money price = new Money(2.5, "EUR");
+
+        Money accumulated = new MoneyAccumulator(EUR_TOTAL).addMultiplied(price, 3).toMoney();
+
+        assertEquals(EUR_TOTAL.add(price.multiplyBy(3)), accumulated);
+    }
+
+    @Test
+    public void addMultipliedByZeroIgnoresCurrencyOfPrice() {
+        Money accumulated = new MoneyAccumulator(EUR_TOTAL).addMultiplied(USD_PRICE, 0).toMoney();
+
+        assertEquals(EUR_TOTAL.add(USD_PRICE.multiplyBy(0)), accumulated);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void addMultipliedRejectsOtherCurrency() {
+        new MoneyAccumulator(EUR_TOTAL).addMultiplied(USD_PRICE, 2);
+    }
+
+    @Test
+    public void emptyAccumulatorTakesCurrencyOfFirstAmount() {
+        Money accumulated = new MoneyAccumulator().addMultiplied(USD_PRICE, 2).toMoney();
+
+        assertEquals(Money.ZERO.add(USD_PRICE.multiplyBy(2)), accumulated);
+    }
+}
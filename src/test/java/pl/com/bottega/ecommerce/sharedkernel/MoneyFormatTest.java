@@ -0,0 +1,64 @@
+package pl.com.bottega.ecommerce.sharedkernel;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Currency;
+import java.util.Locale;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class MoneyFormatTest {
+
+    private final Locale defaultLocale = Locale.getDefault(Locale.Category.FORMAT);
+
+    @After
+    public void restoreDefaultLocale() {
+        Locale.setDefault(Locale.Category.FORMAT, defaultLocale);
+    }
+
+    @Test
+    public void parsesWhatItFormatsForEveryCurrency() {
+        Locale[] locales = { Locale.US, Locale.GERMANY, new Locale("sv", "SE"), new Locale("pl", "PL") };
+        for (Locale locale : locales) {
+            MoneyFormat format = MoneyFormat.getInstance(locale);
+            for (Currency currency : Currency.getAvailableCurrencies()) {
+                Money money = new Money(1234.5, currency);
+                assertEquals(locale + " " + currency, money, format.parse(format.format(money)));
+            }
+        }
+    }
+
+    @Test
+    public void parsesIsoCode() {
+        assertEquals(new Money(12.5, "USD"), MoneyFormat.getInstance(Locale.GERMANY).parse("12,50 USD"));
+    }
+
+    @Test
+    public void writesSameTextAsUtf8() {
+        MoneyFormat format = MoneyFormat.getInstance(new Locale("ar", "EG"));
+        Money large = new Money(new BigDecimal("1E+20"), Currency.getInstance("EGP"));
+        for (Money money : new Money[] { new Money(-1234.5, "EUR"), large }) {
+            ByteBuffer buffer = ByteBuffer.allocate(64);
+
+            format.format(money, buffer);
+
+            buffer.flip();
+            assertEquals(format.format(money), StandardCharsets.UTF_8.decode(buffer).toString());
+        }
+    }
+
+    @Test
+    public void toStringFollowsDefaultLocale() {
+        Money money = new Money(12.5, "EUR");
+        Locale.setDefault(Locale.Category.FORMAT, Locale.US);
+        assertEquals(MoneyFormat.getInstance(Locale.US).format(money), money.toString());
+
+        Locale.setDefault(Locale.Category.FORMAT, Locale.GERMANY);
+
+        assertEquals(MoneyFormat.getInstance(Locale.GERMANY).format(money), money.toString());
+    }
+}
@@ -0,0 +1,107 @@
+package pl.com.bottega.ecommerce.sharedkernel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.util.Currency;
+
+import org.junit.Test;
+
+public class MoneyTest {
+
+    private static final Currency EUR = Currency.getInstance("EUR");
+
+    private static final Currency USD = Currency.getInstance("USD");
+
+    @Test
+    public void keepsDenominationAsStoredField() throws Exception {
+        assertEquals(new BigDecimal("1.00"), field("denomination").get(new Money(1.0)));
+        assertEquals(new BigDecimal("0.07"), field("denomination").get(Money.ofMinorUnits(7, EUR)));
+    }
+
+    @Test
+    public void hydratedMoneyEqualsConstructedOne() throws Exception {
+        Money hydrated = hydrate(new BigDecimal("1.00"), "EUR");
+
+        assertEquals(new Money(1.0), hydrated);
+        assertEquals(hydrated, new Money(1.0));
+        assertEquals(new Money(1.0).hashCode(), hydrated.hashCode());
+        assertEquals(new Money(3.5), hydrated.add(new Money(2.5)));
+        assertEquals(new Money(3), hydrated.multiplyBy(3));
+        assertTrue(hydrated.lessThan(new Money(1.01)));
+    }
+
+    @Test
+    public void hydratedMoneyOfOtherScaleIsRoundedByArithmetic() throws Exception {
+        Money hydrated = hydrate(new BigDecimal("1.005"), "EUR");
+
+        assertEquals(new Money(new BigDecimal("2.00")), hydrated.add(new Money(1)));
+        assertEquals(new Money(new BigDecimal("2.01")), hydrated.multiplyBy(2));
+    }
+
+    @Test
+    public void equalityDependsOnCurrencyAndDenomination() throws Exception {
+        assertNotEquals(new Money(1, EUR), new Money(1, USD));
+        // same as ever: scale is part of the stored value
+        assertNotEquals(new Money(1.0), hydrate(new BigDecimal("1.0"), "EUR"));
+        assertEquals(new Money(new BigDecimal("1.004")), new Money(new BigDecimal("1.00")));
+    }
+
+    @Test
+    public void hashCodeIsThatOfCurrencyCodeAndDenomination() {
+        Money money = new Money(12.34, USD);
+
+        assertEquals(31 * (31 + "USD".hashCode()) + new BigDecimal("12.34").hashCode(), money.hashCode());
+    }
+
+    @Test
+    public void fallsBackToBigDecimalWhenMinorUnitsOverflow() {
+        Money max = Money.ofMinorUnits(Long.MAX_VALUE, EUR);
+        BigDecimal maxDecimal = BigDecimal.valueOf(Long.MAX_VALUE, 2);
+
+        assertEquals(new Money(maxDecimal.add(new BigDecimal("0.01")), EUR), max.add(Money.ofMinorUnits(1, EUR)));
+        assertEquals(new Money(maxDecimal.negate().subtract(new BigDecimal("0.02")), EUR),
+                Money.ofMinorUnits(-Long.MAX_VALUE, EUR).subtract(Money.ofMinorUnits(2, EUR)));
+        assertEquals(new Money(maxDecimal.multiply(BigDecimal.valueOf(3)), EUR), max.multiplyBy(3));
+        assertTrue(max.multiplyBy(2).greaterThan(max));
+    }
+
+    @Test
+    public void multiplyByRoundsHalfEven() {
+        assertEquals(new Money(new BigDecimal("0.12")), new Money(new BigDecimal("0.25")).multiplyBy(0.5));
+        assertEquals(new Money(new BigDecimal("0.38")), new Money(new BigDecimal("0.75")).multiplyBy(0.5));
+        assertEquals(new Money(new BigDecimal("-7.50")), new Money(2.5).multiplyBy(-3));
+        assertEquals(new Money(0), new Money(2.5).multiplyBy(0));
+    }
+
+    @Test
+    public void zeroOfAnyCurrencyIsCompatible() {
+        assertEquals(new Money(2, USD), new Money(0, EUR).add(new Money(2, USD)));
+        assertFalse(new Money(0, EUR).add(new Money(0, USD)).greaterThan(Money.ZERO));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAdditionOfOtherCurrency() {
+        new Money(1, EUR).add(new Money(1, USD));
+    }
+
+    private static Money hydrate(BigDecimal denomination, String currencyCode) throws Exception {
+        Constructor<Money> constructor = Money.class.getDeclaredConstructor();
+        constructor.setAccessible(true);
+        Money money = constructor.newInstance();
+        field("denomination").set(money, denomination);
+        field("currencyCode").set(money, currencyCode);
+        return money;
+    }
+
+    private static Field field(String name) throws Exception {
+        Field field = Money.class.getDeclaredField(name);
+        field.setAccessible(true);
+        return field;
+    }
+}